@@ -0,0 +1,126 @@
+package org.jbakery.extensions.springsocial;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// The per-call cost of the SQL behind one getConnection, addConnection, updateConnection and removeConnection,
+// without touching the database. format renders the statements from the SchemaConfiguration with
+// String.format, the way each of those calls used to; catalog looks the same statements up in the shared
+// StatementCatalog. Compare the gc.alloc.rate.norm columns of the two.
+//
+// The benchmark lives in the library's package because the catalog is package-private.
+
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Measurement(iterations = 5, time = 2)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+public class StatementCatalogBenchmark
+{
+	private final SchemaConfiguration schemaConfiguration = new DefaultSchemaConfiguration();
+	private final StatementCatalog statements = new StatementCatalog(schemaConfiguration, DatabaseDialect.H2);
+
+	@Benchmark
+	public void catalog(final Blackhole blackhole)
+	{
+		blackhole.consume(statements.getGetConnection());
+		blackhole.consume(statements.getInsertConnection());
+		blackhole.consume(statements.getUpdateConnection());
+		blackhole.consume(statements.getRemoveConnection());
+	}
+
+	@Benchmark
+	public void format(final Blackhole blackhole)
+	{
+		// getConnection
+
+		blackhole.consume(
+			String.format(
+				"%s WHERE %s = ? AND %s = ? AND %s = ?",
+				selectAll(),
+				schemaConfiguration.getUserIdColumnName(),
+				schemaConfiguration.getProviderIdColumnName(),
+				schemaConfiguration.getProviderUserIdColumnName()));
+
+		// addConnection, which read the next rank before inserting.
+
+		blackhole.consume(
+			String.format(
+				"SELECT COALESCE(MAX(%s) + 1, 1) AS %s FROM %s WHERE %s = ? AND %s = ?",
+				schemaConfiguration.getRankColumnName(),
+				schemaConfiguration.getRankColumnName(),
+				schemaConfiguration.getTableName(),
+				schemaConfiguration.getUserIdColumnName(),
+				schemaConfiguration.getProviderIdColumnName()));
+
+		blackhole.consume(
+			String.format(
+				"INSERT INTO %s (%s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
+				schemaConfiguration.getTableName(),
+				schemaConfiguration.getUserIdColumnName(),
+				schemaConfiguration.getProviderIdColumnName(),
+				schemaConfiguration.getProviderUserIdColumnName(),
+				schemaConfiguration.getRankColumnName(),
+				schemaConfiguration.getDisplayNameColumnName(),
+				schemaConfiguration.getProfileUrlColumnName(),
+				schemaConfiguration.getImageUrlColumnName(),
+				schemaConfiguration.getAccessTokenColumnName(),
+				schemaConfiguration.getSecretColumnName(),
+				schemaConfiguration.getRefreshTokenColumnName(),
+				schemaConfiguration.getExpireTimeColumnName()));
+
+		// updateConnection
+
+		blackhole.consume(
+			String.format(
+				"UPDATE %s SET %s = ?, %s = ?, %s = ?, %s = ?, %s = ?, %s = ?, %s = ? WHERE %s = ? AND %s = ? AND %s = ?",
+				schemaConfiguration.getTableName(),
+				schemaConfiguration.getDisplayNameColumnName(),
+				schemaConfiguration.getProfileUrlColumnName(),
+				schemaConfiguration.getImageUrlColumnName(),
+				schemaConfiguration.getAccessTokenColumnName(),
+				schemaConfiguration.getSecretColumnName(),
+				schemaConfiguration.getRefreshTokenColumnName(),
+				schemaConfiguration.getExpireTimeColumnName(),
+				schemaConfiguration.getUserIdColumnName(),
+				schemaConfiguration.getProviderIdColumnName(),
+				schemaConfiguration.getProviderUserIdColumnName()));
+
+		// removeConnection
+
+		blackhole.consume(
+			String.format(
+				"DELETE FROM %s WHERE %s = ? AND %s = ? AND %s = ?",
+				schemaConfiguration.getTableName(),
+				schemaConfiguration.getUserIdColumnName(),
+				schemaConfiguration.getProviderIdColumnName(),
+				schemaConfiguration.getProviderUserIdColumnName()));
+	}
+
+	private String selectAll()
+	{
+		return String.format(
+			"SELECT %s, %s, %s, %s, %s, %s, %s, %s, %s, %s FROM %s",
+			schemaConfiguration.getUserIdColumnName(),
+			schemaConfiguration.getProviderIdColumnName(),
+			schemaConfiguration.getProviderUserIdColumnName(),
+			schemaConfiguration.getDisplayNameColumnName(),
+			schemaConfiguration.getProfileUrlColumnName(),
+			schemaConfiguration.getImageUrlColumnName(),
+			schemaConfiguration.getAccessTokenColumnName(),
+			schemaConfiguration.getSecretColumnName(),
+			schemaConfiguration.getRefreshTokenColumnName(),
+			schemaConfiguration.getExpireTimeColumnName(),
+			schemaConfiguration.getTableName());
+	}
+}
@@ -0,0 +1,69 @@
+package org.jbakery.extensions.springsocial.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+// addConnection from several threads at once. The fewer writers there are, the more often
+// concurrent inserts compete for the next rank of the same (userId, providerId) pair; inserts
+// that lose the race roll back and retry with the next rank, which shows up as lower throughput.
+
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Measurement(iterations = 5, time = 2)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Threads(8)
+@Warmup(iterations = 3, time = 2)
+public class AddConnectionBenchmark
+{
+	@Param({ "noop", "aes", "pooled-aes" })
+	public String encryptor;
+
+	@Param({ "1", "8", "1024" })
+	public int writerCount;
+
+	private BenchmarkDatabase database;
+	private final AtomicLong sequence = new AtomicLong();
+
+	@Setup(Level.Trial)
+	public void setUp()
+	{
+		database = BenchmarkDatabase.create(encryptor);
+	}
+
+	@TearDown(Level.Iteration)
+	public void removeWrittenConnections()
+	{
+		database.getJdbcTemplate().update("DELETE FROM UserConnection WHERE userId LIKE 'writer-%'");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		database.close();
+	}
+
+	@Benchmark
+	public void addConnection()
+	{
+		final var next = sequence.incrementAndGet();
+		final var userId = "writer-" + (next % writerCount);
+		final var connection = database.createConnection(BenchmarkDatabase.PROVIDER_IDS[0], "written-" + next);
+
+		database.getRepository().createConnectionRepository(userId).addConnection(connection);
+	}
+}
@@ -0,0 +1,16 @@
+package org.jbakery.extensions.springsocial.benchmarks;
+
+public final class BenchmarkApi
+{
+	private final String accessToken;
+
+	public BenchmarkApi(String accessToken)
+	{
+		this.accessToken = accessToken;
+	}
+
+	public String getAccessToken()
+	{
+		return accessToken;
+	}
+}
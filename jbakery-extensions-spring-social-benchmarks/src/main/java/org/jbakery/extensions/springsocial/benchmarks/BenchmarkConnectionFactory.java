@@ -0,0 +1,62 @@
+package org.jbakery.extensions.springsocial.benchmarks;
+
+import org.springframework.social.connect.ApiAdapter;
+import org.springframework.social.connect.ConnectionValues;
+import org.springframework.social.connect.UserProfile;
+import org.springframework.social.connect.UserProfileBuilder;
+import org.springframework.social.connect.support.OAuth2ConnectionFactory;
+import org.springframework.social.oauth2.OAuth2Operations;
+import org.springframework.social.oauth2.OAuth2ServiceProvider;
+
+// Creates OAuth2 connections without ever contacting a provider.
+
+final class BenchmarkConnectionFactory
+	extends OAuth2ConnectionFactory<BenchmarkApi>
+{
+	BenchmarkConnectionFactory(String providerId)
+	{
+		super(providerId, new ServiceProvider(), new Adapter());
+	}
+
+	private static final class Adapter
+		implements ApiAdapter<BenchmarkApi>
+	{
+		@Override
+		public UserProfile fetchUserProfile(final BenchmarkApi api)
+		{
+			return new UserProfileBuilder().build();
+		}
+
+		@Override
+		public void setConnectionValues(final BenchmarkApi api, final ConnectionValues values)
+		{
+		}
+
+		@Override
+		public boolean test(final BenchmarkApi api)
+		{
+			return true;
+		}
+
+		@Override
+		public void updateStatus(final BenchmarkApi api, final String message)
+		{
+		}
+	}
+
+	private static final class ServiceProvider
+		implements OAuth2ServiceProvider<BenchmarkApi>
+	{
+		@Override
+		public BenchmarkApi getApi(final String accessToken)
+		{
+			return new BenchmarkApi(accessToken);
+		}
+
+		@Override
+		public OAuth2Operations getOAuthOperations()
+		{
+			throw new UnsupportedOperationException();
+		}
+	}
+}
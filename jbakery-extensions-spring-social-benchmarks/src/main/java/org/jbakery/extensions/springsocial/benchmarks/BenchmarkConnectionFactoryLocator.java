@@ -0,0 +1,49 @@
+package org.jbakery.extensions.springsocial.benchmarks;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import org.springframework.social.connect.ConnectionFactory;
+import org.springframework.social.connect.ConnectionFactoryLocator;
+
+// ConnectionFactoryRegistry allows only one factory per API type, but every benchmark provider shares
+// BenchmarkApi, so the factories are looked up by provider id and the API type resolves to the first provider.
+
+final class BenchmarkConnectionFactoryLocator
+	implements ConnectionFactoryLocator
+{
+	private final Map<String, BenchmarkConnectionFactory> connectionFactories = new LinkedHashMap<>();
+
+	BenchmarkConnectionFactoryLocator(String... providerIds)
+	{
+		for (final var providerId : providerIds)
+			connectionFactories.put(providerId, new BenchmarkConnectionFactory(providerId));
+	}
+
+	@Override
+	public ConnectionFactory<?> getConnectionFactory(final String providerId)
+	{
+		final var connectionFactory = connectionFactories.get(providerId);
+
+		if (connectionFactory == null)
+			throw new IllegalArgumentException("providerId");
+
+		return connectionFactory;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <A> ConnectionFactory<A> getConnectionFactory(final Class<A> apiType)
+	{
+		if (apiType != BenchmarkApi.class || connectionFactories.isEmpty())
+			throw new IllegalArgumentException("apiType");
+
+		return (ConnectionFactory<A>)connectionFactories.values().iterator().next();
+	}
+
+	@Override
+	public Set<String> registeredProviderIds()
+	{
+		return connectionFactories.keySet();
+	}
+}
@@ -0,0 +1,149 @@
+package org.jbakery.extensions.springsocial.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.jbakery.extensions.springsocial.DefaultSchemaConfiguration;
+import org.jbakery.extensions.springsocial.JdbcUsersConnectionRepository;
+import org.jbakery.extensions.springsocial.PooledAesTextEncryptor;
+import org.jbakery.extensions.springsocial.SchemaManager;
+import org.jbakery.extensions.springsocial.UserConnection;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.crypto.encrypt.Encryptors;
+import org.springframework.security.crypto.encrypt.TextEncryptor;
+import org.springframework.social.connect.Connection;
+import org.springframework.social.connect.ConnectionData;
+
+// An embedded H2 database seeded with a realistic spread of connections: every user is
+// connected to every provider, and every fourth user has a second connection to the first.
+
+final class BenchmarkDatabase
+{
+	static final String[] PROVIDER_IDS = { "facebook", "google", "twitter" };
+	static final int USER_COUNT = 10_000;
+
+	private final BenchmarkConnectionFactoryLocator connectionFactoryLocator;
+	private final JdbcConnectionPool dataSource;
+	private final JdbcTemplate jdbcTemplate;
+	private final JdbcUsersConnectionRepository repository;
+
+	private BenchmarkDatabase(final TextEncryptor textEncryptor)
+	{
+		connectionFactoryLocator = new BenchmarkConnectionFactoryLocator(PROVIDER_IDS);
+
+		dataSource = JdbcConnectionPool.create("jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "sa", "");
+		dataSource.setMaxConnections(64);
+
+		jdbcTemplate = new JdbcTemplate(dataSource);
+
+		final var schemaConfiguration = new DefaultSchemaConfiguration();
+		final var schemaManager = new SchemaManager(dataSource, schemaConfiguration);
+
+		schemaManager.setFailOnMissingIndex(true);
+		schemaManager.createSchema();
+		schemaManager.validate();
+
+		repository = new JdbcUsersConnectionRepository(connectionFactoryLocator, dataSource, schemaConfiguration, textEncryptor);
+		repository.setBatchSize(500);
+	}
+
+	static BenchmarkDatabase create(final String encryptor)
+	{
+		final var database = createEmpty(encryptor);
+
+		database.seed();
+
+		return database;
+	}
+
+	static BenchmarkDatabase createEmpty(final String encryptor)
+	{
+		return new BenchmarkDatabase(createTextEncryptor(encryptor));
+	}
+
+	static String getProviderUserId(final String providerId, final int user)
+	{
+		return providerId + "-" + user;
+	}
+
+	static String getUserId(final int user)
+	{
+		return "user-" + user;
+	}
+
+	void close()
+	{
+		jdbcTemplate.execute("SHUTDOWN");
+		dataSource.dispose();
+	}
+
+	Connection<?> createConnection(final String providerId, final String providerUserId)
+	{
+		final var data =
+			new ConnectionData(
+				providerId,
+				providerUserId,
+				"Display Name " + providerUserId,
+				"https://" + providerId + ".example.com/" + providerUserId,
+				"https://" + providerId + ".example.com/" + providerUserId + "/image.png",
+				"access-token-" + providerUserId,
+				null,
+				"refresh-token-" + providerUserId,
+				System.currentTimeMillis() + 3_600_000L);
+
+		return connectionFactoryLocator.getConnectionFactory(providerId).createConnection(data);
+	}
+
+	JdbcTemplate getJdbcTemplate()
+	{
+		return jdbcTemplate;
+	}
+
+	JdbcUsersConnectionRepository getRepository()
+	{
+		return repository;
+	}
+
+	private static TextEncryptor createTextEncryptor(final String encryptor)
+	{
+		switch (encryptor)
+		{
+			case "aes":
+				return Encryptors.text("benchmark-password", "5c0744940b5c369b");
+			case "noop":
+				return Encryptors.noOpText();
+			case "pooled-aes":
+				return PooledAesTextEncryptor.text("benchmark-password", "5c0744940b5c369b");
+			default:
+				throw new IllegalArgumentException("encryptor");
+		}
+	}
+
+	private void seed()
+	{
+		final var connections = new ArrayList<UserConnection>();
+
+		for (var user = 0; user < USER_COUNT; user++)
+		{
+			final var userId = getUserId(user);
+
+			for (final var providerId : PROVIDER_IDS)
+				connections.add(new UserConnection(userId, createConnection(providerId, getProviderUserId(providerId, user))));
+
+			if (user % 4 == 0)
+				connections.add(new UserConnection(userId, createConnection(PROVIDER_IDS[0], getProviderUserId(PROVIDER_IDS[0], user) + "-secondary")));
+
+			if (connections.size() >= 5_000)
+				flush(connections);
+		}
+
+		flush(connections);
+	}
+
+	private void flush(final List<UserConnection> connections)
+	{
+		repository.addConnections(connections);
+		connections.clear();
+	}
+}
@@ -0,0 +1,76 @@
+package org.jbakery.extensions.springsocial.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.social.connect.Connection;
+import org.springframework.social.connect.ConnectionKey;
+import org.springframework.util.MultiValueMap;
+
+// Single-user reads through JdbcConnectionRepository, each against a randomly chosen seeded user.
+
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Measurement(iterations = 5, time = 2)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+public class ConnectionRepositoryBenchmark
+{
+	@Param({ "noop", "aes", "pooled-aes" })
+	public String encryptor;
+
+	private BenchmarkDatabase database;
+
+	@Setup(Level.Trial)
+	public void setUp()
+	{
+		database = BenchmarkDatabase.create(encryptor);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		database.close();
+	}
+
+	@Benchmark
+	public MultiValueMap<String, Connection<?>> findAllConnections()
+	{
+		return database.getRepository().createConnectionRepository(randomUserId()).findAllConnections();
+	}
+
+	@Benchmark
+	public List<Connection<?>> findConnections()
+	{
+		return database.getRepository().createConnectionRepository(randomUserId()).findConnections(BenchmarkDatabase.PROVIDER_IDS[0]);
+	}
+
+	@Benchmark
+	public Connection<?> getConnection()
+	{
+		final var user = ThreadLocalRandom.current().nextInt(BenchmarkDatabase.USER_COUNT);
+		final var providerId = BenchmarkDatabase.PROVIDER_IDS[1];
+		final var connectionKey = new ConnectionKey(providerId, BenchmarkDatabase.getProviderUserId(providerId, user));
+
+		return database.getRepository().createConnectionRepository(BenchmarkDatabase.getUserId(user)).getConnection(connectionKey);
+	}
+
+	private static String randomUserId()
+	{
+		return BenchmarkDatabase.getUserId(ThreadLocalRandom.current().nextInt(BenchmarkDatabase.USER_COUNT));
+	}
+}
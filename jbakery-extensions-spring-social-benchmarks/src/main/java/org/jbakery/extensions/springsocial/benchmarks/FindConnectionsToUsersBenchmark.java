@@ -0,0 +1,91 @@
+package org.jbakery.extensions.springsocial.benchmarks;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.social.connect.Connection;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+
+// findConnectionsToUsers at increasing fan-outs, up to 10k-entry providerUsers maps that span
+// several IN-list chunks. Each request asks for the user's own provider users first, so every
+// request has hits, and fills the rest with other seeded provider users. The number of prepared
+// requests shrinks as the fan-out grows, so the largest requests don't crowd the heap.
+
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Measurement(iterations = 5, time = 2)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+public class FindConnectionsToUsersBenchmark
+{
+	private static final int MAXIMUM_REQUEST_ENTRIES = 256_000;
+	private static final int REQUEST_COUNT = 256;
+
+	@Param({ "noop", "aes", "pooled-aes" })
+	public String encryptor;
+
+	@Param({ "1", "10", "100", "1000", "10000" })
+	public int fanOut;
+
+	private BenchmarkDatabase database;
+	private int requestCount;
+	private MultiValueMap<String, String>[] requests;
+	private String[] userIds;
+
+	@Setup(Level.Trial)
+	@SuppressWarnings("unchecked")
+	public void setUp()
+	{
+		database = BenchmarkDatabase.create(encryptor);
+		requestCount = Math.min(REQUEST_COUNT, MAXIMUM_REQUEST_ENTRIES / fanOut);
+		requests = new MultiValueMap[requestCount];
+		userIds = new String[requestCount];
+
+		final var random = ThreadLocalRandom.current();
+
+		for (var index = 0; index < requestCount; index++)
+		{
+			final var user = random.nextInt(BenchmarkDatabase.USER_COUNT);
+			final var request = new LinkedMultiValueMap<String, String>();
+
+			for (var entry = 0; entry < fanOut; entry++)
+			{
+				final var providerId = BenchmarkDatabase.PROVIDER_IDS[entry % BenchmarkDatabase.PROVIDER_IDS.length];
+				final var providerUser = entry < BenchmarkDatabase.PROVIDER_IDS.length ? user : random.nextInt(BenchmarkDatabase.USER_COUNT);
+
+				request.add(providerId, BenchmarkDatabase.getProviderUserId(providerId, providerUser));
+			}
+
+			userIds[index] = BenchmarkDatabase.getUserId(user);
+			requests[index] = request;
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		database.close();
+	}
+
+	@Benchmark
+	public MultiValueMap<String, Connection<?>> findConnectionsToUsers()
+	{
+		final var index = ThreadLocalRandom.current().nextInt(requestCount);
+
+		return database.getRepository().createConnectionRepository(userIds[index]).findConnectionsToUsers(requests[index]);
+	}
+}
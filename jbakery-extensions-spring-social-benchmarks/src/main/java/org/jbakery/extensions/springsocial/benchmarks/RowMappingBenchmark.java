@@ -0,0 +1,128 @@
+package org.jbakery.extensions.springsocial.benchmarks;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.jbakery.extensions.springsocial.DefaultSchemaConfiguration;
+import org.jbakery.extensions.springsocial.SchemaConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.social.connect.ConnectionData;
+
+// Column resolution by label versus by position over the same H2 result. Both mappers read the
+// connection columns the way ConnectionRowMapper does, without decrypting or creating connections,
+// so the difference is the driver's label lookup plus the SchemaConfiguration calls per column.
+
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Measurement(iterations = 5, time = 2)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+public class RowMappingBenchmark
+{
+	private static final int PROVIDER_ID_COLUMN = 2;
+	private static final int PROVIDER_USER_ID_COLUMN = 3;
+	private static final int DISPLAY_NAME_COLUMN = 4;
+	private static final int PROFILE_URL_COLUMN = 5;
+	private static final int IMAGE_URL_COLUMN = 6;
+	private static final int ACCESS_TOKEN_COLUMN = 7;
+	private static final int SECRET_COLUMN = 8;
+	private static final int REFRESH_TOKEN_COLUMN = 9;
+	private static final int EXPIRE_TIME_COLUMN = 10;
+
+	@Param({ "1", "100", "10000" })
+	public int rowCount;
+
+	private final RowMapper<ConnectionData> indexMapper = this::mapByIndex;
+	private final RowMapper<ConnectionData> nameMapper = this::mapByName;
+	private final SchemaConfiguration schemaConfiguration = new DefaultSchemaConfiguration();
+
+	private BenchmarkDatabase database;
+	private String query;
+
+	@Setup(Level.Trial)
+	public void setUp()
+	{
+		database = BenchmarkDatabase.create("noop");
+
+		query =
+			String.format(
+				"SELECT %s, %s, %s, %s, %s, %s, %s, %s, %s, %s FROM %s ORDER BY %s, %s, %s LIMIT ?",
+				schemaConfiguration.getUserIdColumnName(),
+				schemaConfiguration.getProviderIdColumnName(),
+				schemaConfiguration.getProviderUserIdColumnName(),
+				schemaConfiguration.getDisplayNameColumnName(),
+				schemaConfiguration.getProfileUrlColumnName(),
+				schemaConfiguration.getImageUrlColumnName(),
+				schemaConfiguration.getAccessTokenColumnName(),
+				schemaConfiguration.getSecretColumnName(),
+				schemaConfiguration.getRefreshTokenColumnName(),
+				schemaConfiguration.getExpireTimeColumnName(),
+				schemaConfiguration.getTableName(),
+				schemaConfiguration.getUserIdColumnName(),
+				schemaConfiguration.getProviderIdColumnName(),
+				schemaConfiguration.getRankColumnName());
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		database.close();
+	}
+
+	@Benchmark
+	public List<ConnectionData> mapByIndex()
+	{
+		return database.getJdbcTemplate().query(query, indexMapper, rowCount);
+	}
+
+	@Benchmark
+	public List<ConnectionData> mapByName()
+	{
+		return database.getJdbcTemplate().query(query, nameMapper, rowCount);
+	}
+
+	private ConnectionData mapByIndex(final ResultSet results, final int index)
+		throws SQLException
+	{
+		return new ConnectionData(
+			results.getString(PROVIDER_ID_COLUMN),
+			results.getString(PROVIDER_USER_ID_COLUMN),
+			results.getString(DISPLAY_NAME_COLUMN),
+			results.getString(PROFILE_URL_COLUMN),
+			results.getString(IMAGE_URL_COLUMN),
+			results.getString(ACCESS_TOKEN_COLUMN),
+			results.getString(SECRET_COLUMN),
+			results.getString(REFRESH_TOKEN_COLUMN),
+			results.getLong(EXPIRE_TIME_COLUMN));
+	}
+
+	private ConnectionData mapByName(final ResultSet results, final int index)
+		throws SQLException
+	{
+		return new ConnectionData(
+			results.getString(schemaConfiguration.getProviderIdColumnName()),
+			results.getString(schemaConfiguration.getProviderUserIdColumnName()),
+			results.getString(schemaConfiguration.getDisplayNameColumnName()),
+			results.getString(schemaConfiguration.getProfileUrlColumnName()),
+			results.getString(schemaConfiguration.getImageUrlColumnName()),
+			results.getString(schemaConfiguration.getAccessTokenColumnName()),
+			results.getString(schemaConfiguration.getSecretColumnName()),
+			results.getString(schemaConfiguration.getRefreshTokenColumnName()),
+			results.getLong(schemaConfiguration.getExpireTimeColumnName()));
+	}
+}
@@ -0,0 +1,86 @@
+package org.jbakery.extensions.springsocial.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.social.connect.Connection;
+
+// Reverse lookups through JdbcUsersConnectionRepository. Connections and provider user sets are
+// built during setup so that only the lookups themselves are measured.
+
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Measurement(iterations = 5, time = 2)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+public class UsersConnectionRepositoryBenchmark
+{
+	private static final int REQUEST_COUNT = 256;
+
+	@Param({ "noop", "aes", "pooled-aes" })
+	public String encryptor;
+
+	@Param({ "100" })
+	public int providerUserCount;
+
+	private Connection<?>[] connections;
+	private BenchmarkDatabase database;
+	private List<Set<String>> providerUserIds;
+
+	@Setup(Level.Trial)
+	public void setUp()
+	{
+		database = BenchmarkDatabase.create(encryptor);
+		connections = new Connection<?>[REQUEST_COUNT];
+		providerUserIds = new ArrayList<>(REQUEST_COUNT);
+
+		final var random = ThreadLocalRandom.current();
+		final var providerId = BenchmarkDatabase.PROVIDER_IDS[2];
+
+		for (var index = 0; index < REQUEST_COUNT; index++)
+		{
+			final var ids = new HashSet<String>();
+
+			for (var entry = 0; entry < providerUserCount; entry++)
+				ids.add(BenchmarkDatabase.getProviderUserId(providerId, random.nextInt(BenchmarkDatabase.USER_COUNT)));
+
+			connections[index] = database.createConnection(providerId, BenchmarkDatabase.getProviderUserId(providerId, random.nextInt(BenchmarkDatabase.USER_COUNT)));
+			providerUserIds.add(ids);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		database.close();
+	}
+
+	@Benchmark
+	public Set<String> findUserIdsConnectedTo()
+	{
+		return database.getRepository().findUserIdsConnectedTo(BenchmarkDatabase.PROVIDER_IDS[2], providerUserIds.get(ThreadLocalRandom.current().nextInt(REQUEST_COUNT)));
+	}
+
+	@Benchmark
+	public List<String> findUserIdsWithConnection()
+	{
+		return database.getRepository().findUserIdsWithConnection(connections[ThreadLocalRandom.current().nextInt(REQUEST_COUNT)]);
+	}
+}
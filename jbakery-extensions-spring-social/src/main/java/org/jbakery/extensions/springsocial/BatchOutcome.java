@@ -0,0 +1,8 @@
+package org.jbakery.extensions.springsocial;
+
+public enum BatchOutcome
+{
+	APPLIED,
+	DUPLICATE,
+	NOT_FOUND
+}
@@ -0,0 +1,184 @@
+package org.jbakery.extensions.springsocial;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiPredicate;
+import org.jbakery.arguments.Argument;
+
+final class BoundedCache<K, V>
+{
+	private static final int GENERATION_STRIPES = 64;
+
+	private final LinkedHashMap<K, CacheEntry<V>> entries;
+	private final LongAdder evictionCount = new LongAdder();
+	private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+	private final LongAdder hitCount = new LongAdder();
+	private final Object lock = new Object();
+	private final LongAdder missCount = new LongAdder();
+	private final long timeToLive;
+
+	BoundedCache(final int maximumSize, final Duration timeToLive)
+	{
+		Argument.notNull(timeToLive, "timeToLive");
+
+		if (maximumSize < 1)
+			throw new IllegalArgumentException("maximumSize");
+
+		if (timeToLive.isNegative() || timeToLive.isZero())
+			throw new IllegalArgumentException("timeToLive");
+
+		this.timeToLive = timeToLive.toNanos();
+
+		// An access-ordered map gives least-recently-used eviction once the size bound is reached.
+
+		this.entries = new LinkedHashMap<>(16, 0.75f, true)
+		{
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<K, CacheEntry<V>> eldest)
+			{
+				if (size() <= maximumSize)
+					return false;
+
+				evictionCount.increment();
+
+				return true;
+			}
+		};
+	}
+
+	V get(final K key)
+	{
+		synchronized (lock)
+		{
+			final var entry = entries.get(key);
+
+			if (entry == null)
+			{
+				missCount.increment();
+
+				return null;
+			}
+
+			if (entry.isExpired(System.nanoTime()))
+			{
+				entries.remove(key);
+				evictionCount.increment();
+				missCount.increment();
+
+				return null;
+			}
+
+			hitCount.increment();
+
+			return entry.value;
+		}
+	}
+
+	long generation(final K key)
+	{
+		return generations.get(stripe(key));
+	}
+
+	void put(final K key, final V value, final long generation)
+	{
+		put(key, value, generation, timeToLive);
+	}
+
+	void put(final K key, final V value, final long generation, final Duration timeToLive)
+	{
+		put(key, value, generation, timeToLive.toNanos());
+	}
+
+	void invalidate(final K key)
+	{
+		// Advancing the generation first rejects any load of this key that is still in flight.
+
+		generations.incrementAndGet(stripe(key));
+
+		synchronized (lock)
+		{
+			entries.remove(key);
+		}
+	}
+
+	void invalidateIf(final BiPredicate<K, V> predicate)
+	{
+		// Loads of keys that are not cached yet can't be matched, so every stripe is advanced.
+
+		for (var i = 0; i < GENERATION_STRIPES; i++)
+			generations.incrementAndGet(i);
+
+		synchronized (lock)
+		{
+			entries.entrySet().removeIf(entry -> predicate.test(entry.getKey(), entry.getValue().value));
+		}
+	}
+
+	void invalidateAll()
+	{
+		invalidateIf((key, value) -> true);
+	}
+
+	long getEvictionCount()
+	{
+		return evictionCount.sum();
+	}
+
+	long getHitCount()
+	{
+		return hitCount.sum();
+	}
+
+	long getMissCount()
+	{
+		return missCount.sum();
+	}
+
+	int size()
+	{
+		synchronized (lock)
+		{
+			return entries.size();
+		}
+	}
+
+	private void put(final K key, final V value, final long generation, final long timeToLive)
+	{
+		synchronized (lock)
+		{
+			// If the key was invalidated after the value was loaded, the value may be stale; drop it.
+
+			if (generations.get(stripe(key)) != generation)
+				return;
+
+			entries.put(key, new CacheEntry<>(value, System.nanoTime() + timeToLive));
+		}
+	}
+
+	private static int stripe(final Object key)
+	{
+		final var hash = key.hashCode();
+
+		return (hash ^ (hash >>> 16)) & (GENERATION_STRIPES - 1);
+	}
+
+	private static final class CacheEntry<V>
+	{
+		private final long expiration;
+		private final V value;
+
+		private CacheEntry(final V value, final long expiration)
+		{
+			this.value = value;
+			this.expiration = expiration;
+		}
+
+		private boolean isExpired(final long now)
+		{
+			return now - expiration >= 0;
+		}
+	}
+}
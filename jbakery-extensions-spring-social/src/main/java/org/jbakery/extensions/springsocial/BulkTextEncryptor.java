@@ -0,0 +1,56 @@
+package org.jbakery.extensions.springsocial;
+
+import java.util.List;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import org.jbakery.arguments.Argument;
+import org.springframework.security.crypto.encrypt.TextEncryptor;
+
+public interface BulkTextEncryptor
+	extends TextEncryptor
+{
+	static BulkTextEncryptor of(final TextEncryptor textEncryptor)
+	{
+		Argument.notNull(textEncryptor, "textEncryptor");
+
+		if (textEncryptor instanceof BulkTextEncryptor)
+			return (BulkTextEncryptor)textEncryptor;
+
+		return new BulkTextEncryptor()
+		{
+			@Override
+			public String encrypt(final String text)
+			{
+				return textEncryptor.encrypt(text);
+			}
+
+			@Override
+			public String decrypt(final String encryptedText)
+			{
+				return textEncryptor.decrypt(encryptedText);
+			}
+		};
+	}
+
+	default List<String> decryptAll(final List<String> encryptedTexts)
+	{
+		return transformAll(Argument.notNull(encryptedTexts, "encryptedTexts"), this::decrypt);
+	}
+
+	default List<String> encryptAll(final List<String> texts)
+	{
+		return transformAll(Argument.notNull(texts, "texts"), this::encrypt);
+	}
+
+	private static List<String> transformAll(final List<String> values, final UnaryOperator<String> transform)
+	{
+		// Nulls pass through untouched. Small lists aren't worth the fork/join overhead; larger ones
+		// are spread across cores, and the results keep the order of the values.
+
+		final var stream = values.size() < 64 ? values.stream() : values.parallelStream();
+
+		return stream
+			.map(value -> value == null ? null : transform.apply(value))
+			.collect(Collectors.toList());
+	}
+}
@@ -0,0 +1,191 @@
+package org.jbakery.extensions.springsocial;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.jbakery.arguments.Argument;
+import org.springframework.social.connect.Connection;
+import org.springframework.social.connect.ConnectionFactoryLocator;
+import org.springframework.social.connect.ConnectionKey;
+import org.springframework.social.connect.ConnectionRepository;
+import org.springframework.social.connect.NoSuchConnectionException;
+import org.springframework.social.connect.NotConnectedException;
+import org.springframework.util.MultiValueMap;
+
+public final class CachingConnectionRepository
+	implements ConnectionRepository
+{
+	private final ConnectionCache cache;
+	private final ConnectionFactoryLocator connectionFactoryLocator;
+	private final ConnectionRepository delegate;
+	private final String userId;
+
+	public CachingConnectionRepository(
+		ConnectionRepository delegate,
+		ConnectionFactoryLocator connectionFactoryLocator,
+		ConnectionCache cache,
+		String userId)
+	{
+		this.delegate = Argument.notNull(delegate, "delegate");
+		this.connectionFactoryLocator = Argument.notNull(connectionFactoryLocator, "connectionFactoryLocator");
+		this.cache = Argument.notNull(cache, "cache");
+		this.userId = Argument.notNull(userId, "userId");
+	}
+
+	@Override
+	public MultiValueMap<String, Connection<?>> findAllConnections()
+	{
+		return delegate.findAllConnections();
+	}
+
+	@Override
+	public List<Connection<?>> findConnections(final String providerId)
+	{
+		Argument.notNull(providerId, "providerId");
+
+		return new ArrayList<>(loadConnections(providerId));
+	}
+
+	@Override
+	public <T> List<Connection<T>> findConnections(final Class<T> apiType)
+	{
+		Argument.notNull(apiType, "apiType");
+
+		List<?> connections = findConnections(getProviderId(apiType));
+
+		return (List<Connection<T>>)connections;
+	}
+
+	@Override
+	public MultiValueMap<String, Connection<?>> findConnectionsToUsers(final MultiValueMap<String, String> providerUsers)
+	{
+		return delegate.findConnectionsToUsers(providerUsers);
+	}
+
+	@Override
+	public Connection<?> getConnection(final ConnectionKey connectionKey)
+	{
+		Argument.notNull(connectionKey, "connectionKey");
+
+		// The cached list holds every connection of the user to the provider, so a key that isn't in it doesn't exist.
+
+		for (final var connection : loadConnections(connectionKey.getProviderId()))
+		{
+			if (connection.getKey().equals(connectionKey))
+				return connection;
+		}
+
+		throw new NoSuchConnectionException(connectionKey);
+	}
+
+	@Override
+	public <T> Connection<T> getConnection(final Class<T> apiType, final String providerUserId)
+	{
+		Argument.notNull(apiType, "apiType");
+		Argument.notNull(providerUserId, "providerUserId");
+
+		final var providerId = getProviderId(apiType);
+		final var connection = getConnection(new ConnectionKey(providerId, providerUserId));
+
+		return (Connection<T>)connection;
+	}
+
+	@Override
+	public <T> Connection<T> getPrimaryConnection(final Class<T> apiType)
+	{
+		Argument.notNull(apiType, "apiType");
+
+		final var providerId = getProviderId(apiType);
+		final var connection = findPrimaryConnection(apiType);
+
+		if (connection == null)
+			throw new NotConnectedException(providerId);
+
+		return connection;
+	}
+
+	@Override
+	public <T> Connection<T> findPrimaryConnection(final Class<T> apiType)
+	{
+		Argument.notNull(apiType, "apiType");
+
+		final var connections = loadConnections(getProviderId(apiType));
+
+		if (connections.isEmpty())
+			return null;
+
+		return (Connection<T>)connections.get(0);
+	}
+
+	@Override
+	public void addConnection(final Connection<?> connection)
+	{
+		Argument.notNull(connection, "connection");
+
+		write(connection.getKey().getProviderId(), () -> delegate.addConnection(connection));
+	}
+
+	@Override
+	public void updateConnection(final Connection<?> connection)
+	{
+		Argument.notNull(connection, "connection");
+
+		write(connection.getKey().getProviderId(), () -> delegate.updateConnection(connection));
+	}
+
+	@Override
+	public void removeConnections(final String providerId)
+	{
+		Argument.notNull(providerId, "providerId");
+
+		write(providerId, () -> delegate.removeConnections(providerId));
+	}
+
+	@Override
+	public void removeConnection(final ConnectionKey connectionKey)
+	{
+		Argument.notNull(connectionKey, "connectionKey");
+
+		write(connectionKey.getProviderId(), () -> delegate.removeConnection(connectionKey));
+	}
+
+	private <T> String getProviderId(final Class<T> apiType)
+	{
+		return connectionFactoryLocator.getConnectionFactory(apiType).getProviderId();
+	}
+
+	private List<Connection<?>> loadConnections(final String providerId)
+	{
+		final var cachedConnections = cache.get(userId, providerId);
+
+		if (cachedConnections != null)
+			return cachedConnections;
+
+		// Capture the generation before querying, so a write that lands during the query discards the result.
+
+		final var generation = cache.generation(userId, providerId);
+		final var connections = Collections.unmodifiableList(new ArrayList<>(delegate.findConnections(providerId)));
+
+		cache.put(userId, providerId, connections, generation);
+
+		return connections;
+	}
+
+	private void write(final String providerId, final Runnable operation)
+	{
+		cache.invalidate(userId, providerId);
+
+		try
+		{
+			operation.run();
+		}
+		finally
+		{
+			cache.invalidate(userId, providerId);
+
+			// Until the surrounding transaction completes, other threads may still read (and cache) the old rows.
+
+			TransactionCallbacks.afterCompletion(() -> cache.invalidate(userId, providerId));
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package org.jbakery.extensions.springsocial;
+
+import java.util.List;
+import java.util.Set;
+import org.jbakery.arguments.Argument;
+import org.springframework.social.connect.Connection;
+import org.springframework.social.connect.ConnectionFactoryLocator;
+import org.springframework.social.connect.ConnectionRepository;
+import org.springframework.social.connect.ConnectionSignUp;
+import org.springframework.social.connect.UsersConnectionRepository;
+
+public final class CachingUsersConnectionRepository
+	implements UsersConnectionRepository
+{
+	private final ConnectionCache cache;
+	private final ConnectionFactoryLocator connectionFactoryLocator;
+	private final UsersConnectionRepository delegate;
+	private final ThreadLocal<String> signedUpUserId = new ThreadLocal<>();
+
+	public CachingUsersConnectionRepository(UsersConnectionRepository delegate, ConnectionFactoryLocator connectionFactoryLocator, ConnectionCache cache)
+	{
+		this.delegate = Argument.notNull(delegate, "delegate");
+		this.connectionFactoryLocator = Argument.notNull(connectionFactoryLocator, "connectionFactoryLocator");
+		this.cache = Argument.notNull(cache, "cache");
+	}
+
+	@Override
+	public List<String> findUserIdsWithConnection(final Connection<?> connection)
+	{
+		Argument.notNull(connection, "connection");
+
+		final List<String> userIds;
+		final String signedUpUserId;
+
+		try
+		{
+			userIds = delegate.findUserIdsWithConnection(connection);
+			signedUpUserId = this.signedUpUserId.get();
+		}
+		finally
+		{
+			this.signedUpUserId.remove();
+		}
+
+		// An ordinary sign-in changes nothing. Only an implicit sign-up adds the connection, for the new user,
+		// behind the cache's back.
+
+		if (signedUpUserId != null)
+		{
+			final var providerId = connection.getKey().getProviderId();
+
+			cache.invalidate(signedUpUserId, providerId);
+			TransactionCallbacks.afterCompletion(() -> cache.invalidate(signedUpUserId, providerId));
+		}
+
+		return userIds;
+	}
+
+	@Override
+	public Set<String> findUserIdsConnectedTo(final String providerId, final Set<String> providerUserIds)
+	{
+		return delegate.findUserIdsConnectedTo(providerId, providerUserIds);
+	}
+
+	@Override
+	public ConnectionRepository createConnectionRepository(final String userId)
+	{
+		Argument.notNull(userId, "userId");
+
+		return new CachingConnectionRepository(delegate.createConnectionRepository(userId), connectionFactoryLocator, cache, userId);
+	}
+
+	@Override
+	public void setConnectionSignUp(final ConnectionSignUp connectionSignUp)
+	{
+		Argument.notNull(connectionSignUp, "connectionSignUp");
+
+		// The delegate runs the sign-up on the calling thread, inside findUserIdsWithConnection, which picks up
+		// the new user once the delegate has added the connection.
+
+		delegate.setConnectionSignUp(connection ->
+		{
+			final var userId = connectionSignUp.execute(connection);
+
+			signedUpUserId.set(userId);
+
+			return userId;
+		});
+	}
+}
@@ -0,0 +1,61 @@
+package org.jbakery.extensions.springsocial;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.jbakery.arguments.Argument;
+import org.springframework.security.crypto.encrypt.TextEncryptor;
+
+// Lets reads accept tokens written under either key while they are being rotated. Text is always encrypted
+// with the current key; decryption tries the current key first and falls back to the previous ones in order.
+// A fallback is only reliable when a wrong key fails loudly, as it does with authenticated (GCM) encryption.
+
+public final class CompositeTextEncryptor
+	implements BulkTextEncryptor
+{
+	private final TextEncryptor current;
+	private final List<TextEncryptor> previous;
+
+	public CompositeTextEncryptor(TextEncryptor current, TextEncryptor... previous)
+	{
+		this.current = Argument.notNull(current, "current");
+
+		Argument.notNull(previous, "previous");
+
+		for (final var textEncryptor : previous)
+			Argument.notNull(textEncryptor, "previous");
+
+		this.previous = new ArrayList<>(Arrays.asList(previous));
+	}
+
+	@Override
+	public String decrypt(final String encryptedText)
+	{
+		try
+		{
+			return current.decrypt(encryptedText);
+		}
+		catch (final RuntimeException e)
+		{
+			for (final var textEncryptor : previous)
+			{
+				try
+				{
+					return textEncryptor.decrypt(encryptedText);
+				}
+				catch (final RuntimeException previousException)
+				{
+					e.addSuppressed(previousException);
+				}
+			}
+
+			throw e;
+		}
+	}
+
+	@Override
+	public String encrypt(final String text)
+	{
+		return current.encrypt(text);
+	}
+}
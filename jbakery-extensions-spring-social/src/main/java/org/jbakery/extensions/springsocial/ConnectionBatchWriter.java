@@ -0,0 +1,239 @@
+package org.jbakery.extensions.springsocial;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import org.jbakery.arguments.Argument;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.PessimisticLockingFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.security.crypto.encrypt.TextEncryptor;
+import org.springframework.social.connect.ConnectionData;
+
+final class ConnectionBatchWriter
+{
+	private final int batchSize;
+	private final JdbcTemplate jdbcTemplate;
+	private final RepositoryMetrics metrics;
+	private final Savepoints savepoints;
+	private final StatementCatalog statements;
+	private final TextEncryptor textEncryptor;
+
+	ConnectionBatchWriter(JdbcTemplate jdbcTemplate, Savepoints savepoints, StatementCatalog statements, TextEncryptor textEncryptor, RepositoryMetrics metrics, int batchSize)
+	{
+		this.jdbcTemplate = Argument.notNull(jdbcTemplate, "jdbcTemplate");
+		this.savepoints = Argument.notNull(savepoints, "savepoints");
+		this.statements = Argument.notNull(statements, "statements");
+		this.textEncryptor = Argument.notNull(textEncryptor, "textEncryptor");
+		this.metrics = Argument.notNull(metrics, "metrics");
+
+		if (batchSize < 1)
+			throw new IllegalArgumentException("batchSize");
+
+		this.batchSize = batchSize;
+	}
+
+	List<BatchOutcome> addConnections(final List<UserConnection> connections)
+	{
+		final var parameters = prepare(connections, ConnectionBatchWriter::toInsertParameters);
+
+		final var outcomes = new ArrayList<BatchOutcome>(parameters.size());
+
+		for (var offset = 0; offset < parameters.size(); offset += batchSize)
+		{
+			final var batch = parameters.subList(offset, Math.min(offset + batchSize, parameters.size()));
+
+			try
+			{
+				// The chunk runs under a savepoint (or in a transaction of its own), so a failure undoes the
+				// rows the driver already applied before the chunk is replayed.
+
+				final var updateCounts = savepoints.execute(() -> Instrumentation.query(metrics, "addConnections", () -> jdbcTemplate.batchUpdate(statements.getInsertConnectionIfAbsent(), batch)));
+
+				addOutcomes(outcomes, updateCounts, BatchOutcome.DUPLICATE);
+			}
+			catch (final DuplicateKeyException e)
+			{
+				// A concurrent writer won a race the NOT EXISTS guard couldn't see; replay the batch row by row.
+
+				for (final var rowParameters : batch)
+					outcomes.add(addConnection(rowParameters));
+			}
+			catch (final PessimisticLockingFailureException e)
+			{
+				// The same race can deadlock on MySQL's rank locks instead.
+
+				if (!savepoints.canRetryLockFailure())
+					throw e;
+
+				for (final var rowParameters : batch)
+					outcomes.add(addConnection(rowParameters));
+			}
+		}
+
+		return outcomes;
+	}
+
+	List<BatchOutcome> updateConnections(final List<UserConnection> connections)
+	{
+		final var parameters = prepare(connections, ConnectionBatchWriter::toUpdateParameters);
+
+		return execute("updateConnections", statements.getUpdateConnection(), parameters);
+	}
+
+	List<BatchOutcome> removeConnections(final List<UserConnectionKey> connectionKeys)
+	{
+		final var parameters = new ArrayList<Object[]>(connectionKeys.size());
+
+		for (final var connectionKey : connectionKeys)
+		{
+			parameters.add(new Object[]
+			{
+				connectionKey.getUserId(),
+				connectionKey.getConnectionKey().getProviderId(),
+				connectionKey.getConnectionKey().getProviderUserId()
+			});
+		}
+
+		return execute("removeConnections", statements.getRemoveConnection(), parameters);
+	}
+
+	private BatchOutcome addConnection(final Object[] rowParameters)
+	{
+		// A duplicate key is either this connection, added concurrently, or a concurrent add of another
+		// connection that took the same rank; only the latter is retried, as are deadlocks over the rank.
+
+		for (var attempt = 1; ; attempt++)
+		{
+			try
+			{
+				return toOutcome(savepoints.execute(() -> jdbcTemplate.update(statements.getInsertConnectionIfAbsent(), rowParameters)), BatchOutcome.DUPLICATE);
+			}
+			catch (final DuplicateKeyException e)
+			{
+				final ResultSetExtractor<Boolean> exists = ResultSet::next;
+
+				if (jdbcTemplate.query(statements.getGetConnection(), exists, rowParameters[0], rowParameters[1], rowParameters[2]))
+				{
+					metrics.incrementDuplicateConnections();
+
+					return BatchOutcome.DUPLICATE;
+				}
+
+				if (attempt == JdbcConnectionRepository.MAX_RANK_ATTEMPTS)
+					throw e;
+			}
+			catch (final PessimisticLockingFailureException e)
+			{
+				if (!savepoints.canRetryLockFailure() || attempt == JdbcConnectionRepository.MAX_RANK_ATTEMPTS)
+					throw e;
+			}
+		}
+	}
+
+	private List<BatchOutcome> execute(final String operation, final String query, final List<Object[]> parameters)
+	{
+		final var outcomes = new ArrayList<BatchOutcome>(parameters.size());
+
+		for (var offset = 0; offset < parameters.size(); offset += batchSize)
+		{
+			final var batch = parameters.subList(offset, Math.min(offset + batchSize, parameters.size()));
+
+			final var updateCounts = Instrumentation.query(metrics, operation, () -> jdbcTemplate.batchUpdate(query, batch));
+
+			addOutcomes(outcomes, updateCounts, BatchOutcome.NOT_FOUND);
+		}
+
+		return outcomes;
+	}
+
+	private List<Object[]> prepare(final List<UserConnection> connections, final ParameterFactory parameterFactory)
+	{
+		// Token encryption is the expensive part of preparing a row, so every token of the batch is
+		// encrypted in a single bulk call, which spreads large batches across cores.
+
+		final var connectionData = new ArrayList<ConnectionData>(connections.size());
+		final var tokens = new ArrayList<String>(connections.size() * 3);
+
+		for (final var userConnection : connections)
+		{
+			final var data = userConnection.getConnection().createData();
+
+			connectionData.add(data);
+			tokens.add(data.getAccessToken());
+			tokens.add(data.getSecret());
+			tokens.add(data.getRefreshToken());
+		}
+
+		final var encryptedTokens = Instrumentation.encryptAll(metrics, textEncryptor, tokens);
+		final var parameters = new ArrayList<Object[]>(connections.size());
+
+		for (var index = 0; index < connections.size(); index++)
+			parameters.add(parameterFactory.create(connections.get(index).getUserId(), connectionData.get(index), encryptedTokens.subList(index * 3, index * 3 + 3)));
+
+		return parameters;
+	}
+
+	private static Object[] toInsertParameters(final String userId, final ConnectionData data, final List<String> encryptedTokens)
+	{
+		return new Object[]
+		{
+			userId,
+			data.getProviderId(),
+			data.getProviderUserId(),
+			data.getDisplayName(),
+			data.getProfileUrl(),
+			data.getImageUrl(),
+			encryptedTokens.get(0),
+			encryptedTokens.get(1),
+			encryptedTokens.get(2),
+			data.getExpireTime(),
+			userId,
+			data.getProviderId(),
+			userId,
+			data.getProviderId(),
+			data.getProviderUserId()
+		};
+	}
+
+	private static Object[] toUpdateParameters(final String userId, final ConnectionData data, final List<String> encryptedTokens)
+	{
+		return new Object[]
+		{
+			data.getDisplayName(),
+			data.getProfileUrl(),
+			data.getImageUrl(),
+			encryptedTokens.get(0),
+			encryptedTokens.get(1),
+			encryptedTokens.get(2),
+			data.getExpireTime(),
+			userId,
+			data.getProviderId(),
+			data.getProviderUserId()
+		};
+	}
+
+	private static void addOutcomes(final List<BatchOutcome> outcomes, final int[] updateCounts, final BatchOutcome noRowsOutcome)
+	{
+		for (final var updateCount : updateCounts)
+			outcomes.add(toOutcome(updateCount, noRowsOutcome));
+	}
+
+	private static BatchOutcome toOutcome(final int updateCount, final BatchOutcome noRowsOutcome)
+	{
+		// Some drivers only report that a batched statement succeeded, not how many rows it touched.
+
+		if (updateCount > 0 || updateCount == Statement.SUCCESS_NO_INFO)
+			return BatchOutcome.APPLIED;
+
+		return noRowsOutcome;
+	}
+
+	@FunctionalInterface
+	private interface ParameterFactory
+	{
+		Object[] create(String userId, ConnectionData data, List<String> encryptedTokens);
+	}
+}
@@ -0,0 +1,101 @@
+package org.jbakery.extensions.springsocial;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import org.jbakery.arguments.Argument;
+import org.springframework.social.connect.Connection;
+
+public final class ConnectionCache
+{
+	private final BoundedCache<Key, List<Connection<?>>> cache;
+
+	public ConnectionCache(final int maximumSize, final Duration timeToLive)
+	{
+		this.cache = new BoundedCache<>(maximumSize, timeToLive);
+	}
+
+	public long getEvictionCount()
+	{
+		return cache.getEvictionCount();
+	}
+
+	public long getHitCount()
+	{
+		return cache.getHitCount();
+	}
+
+	public long getMissCount()
+	{
+		return cache.getMissCount();
+	}
+
+	public int getSize()
+	{
+		return cache.size();
+	}
+
+	public void invalidate(final String userId)
+	{
+		Argument.notNull(userId, "userId");
+
+		cache.invalidateIf((key, connections) -> key.userId.equals(userId));
+	}
+
+	public void invalidateAll()
+	{
+		cache.invalidateAll();
+	}
+
+	List<Connection<?>> get(final String userId, final String providerId)
+	{
+		return cache.get(new Key(userId, providerId));
+	}
+
+	long generation(final String userId, final String providerId)
+	{
+		return cache.generation(new Key(userId, providerId));
+	}
+
+	void invalidate(final String userId, final String providerId)
+	{
+		cache.invalidate(new Key(userId, providerId));
+	}
+
+	void put(final String userId, final String providerId, final List<Connection<?>> connections, final long generation)
+	{
+		cache.put(new Key(userId, providerId), connections, generation);
+	}
+
+	private static final class Key
+	{
+		private final String providerId;
+		private final String userId;
+
+		private Key(final String userId, final String providerId)
+		{
+			this.userId = userId;
+			this.providerId = providerId;
+		}
+
+		@Override
+		public boolean equals(final Object object)
+		{
+			if (this == object)
+				return true;
+
+			if (!(object instanceof Key))
+				return false;
+
+			final var other = (Key)object;
+
+			return userId.equals(other.userId) && providerId.equals(other.providerId);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Objects.hash(userId, providerId);
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package org.jbakery.extensions.springsocial;
+
+import java.util.Objects;
+import org.jbakery.arguments.Argument;
+
+public final class ConnectionCursor
+{
+	private final String providerId;
+	private final int rank;
+
+	public ConnectionCursor(String providerId, int rank)
+	{
+		this.providerId = Argument.notNull(providerId, "providerId");
+		this.rank = rank;
+	}
+
+	public String getProviderId()
+	{
+		return providerId;
+	}
+
+	public int getRank()
+	{
+		return rank;
+	}
+
+	@Override
+	public boolean equals(final Object object)
+	{
+		if (this == object)
+			return true;
+
+		if (!(object instanceof ConnectionCursor))
+			return false;
+
+		final var other = (ConnectionCursor)object;
+
+		return providerId.equals(other.providerId) && rank == other.rank;
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return Objects.hash(providerId, rank);
+	}
+}
@@ -0,0 +1,34 @@
+package org.jbakery.extensions.springsocial;
+
+import java.util.Collections;
+import java.util.List;
+import org.jbakery.arguments.Argument;
+
+public final class ConnectionPage<T>
+{
+	private final List<T> items;
+	private final ConnectionCursor nextCursor;
+
+	public ConnectionPage(List<T> items, ConnectionCursor nextCursor)
+	{
+		this.items = Collections.unmodifiableList(Argument.notNull(items, "items"));
+		this.nextCursor = nextCursor;
+	}
+
+	public List<T> getItems()
+	{
+		return items;
+	}
+
+	// Null on the last page.
+
+	public ConnectionCursor getNextCursor()
+	{
+		return nextCursor;
+	}
+
+	public boolean hasNextPage()
+	{
+		return nextCursor != null;
+	}
+}
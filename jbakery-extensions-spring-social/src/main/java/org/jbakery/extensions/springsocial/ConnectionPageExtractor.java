@@ -0,0 +1,55 @@
+package org.jbakery.extensions.springsocial;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import org.jbakery.arguments.Argument;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowMapper;
+
+final class ConnectionPageExtractor<T>
+	implements ResultSetExtractor<ConnectionPage<T>>
+{
+	private final int pageSize;
+	private final int providerIdColumn;
+	private final int rankColumn;
+	private final RowMapper<T> rowMapper;
+
+	ConnectionPageExtractor(RowMapper<T> rowMapper, int providerIdColumn, int rankColumn, int pageSize)
+	{
+		this.rowMapper = Argument.notNull(rowMapper, "rowMapper");
+		this.providerIdColumn = providerIdColumn;
+		this.rankColumn = rankColumn;
+
+		if (pageSize < 1)
+			throw new IllegalArgumentException("pageSize");
+
+		this.pageSize = pageSize;
+	}
+
+	@Override
+	public ConnectionPage<T> extractData(final ResultSet results)
+		throws SQLException
+	{
+		// The query asks for one row more than the page holds; its presence says another page follows, so
+		// no count is needed. Reading stops at that row, so nothing past it is mapped.
+
+		final var items = new ArrayList<T>(Math.min(pageSize, 64));
+
+		String lastProviderId = null;
+		var lastRank = 0;
+
+		while (results.next())
+		{
+			if (items.size() == pageSize)
+				return new ConnectionPage<>(items, new ConnectionCursor(lastProviderId, lastRank));
+
+			items.add(rowMapper.mapRow(results, items.size()));
+
+			lastProviderId = results.getString(providerIdColumn);
+			lastRank = results.getInt(rankColumn);
+		}
+
+		return new ConnectionPage<>(items, null);
+	}
+}
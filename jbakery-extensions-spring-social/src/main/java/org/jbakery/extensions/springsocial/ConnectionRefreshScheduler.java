@@ -0,0 +1,412 @@
+package org.jbakery.extensions.springsocial;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jbakery.arguments.Argument;
+
+// Refreshes connections whose tokens expire within the refresh window before they are next used, rather
+// than when a request finds them expired. Each pass scans the expireTime index, refreshes the connections
+// it finds with bounded parallelism and per-provider rate limits, and writes the new tokens back in batches.
+// A connection whose refresh fails keeps its expiry, so it is found by every later scan; it is retried with
+// an exponential backoff rather than on every pass.
+
+public final class ConnectionRefreshScheduler
+{
+	private static final Log log = LogFactory.getLog(ConnectionRefreshScheduler.class);
+
+	private final AtomicLong backlog = new AtomicLong();
+	private final Executor executor;
+	private final Map<String, LongAdder> failureCounts = new ConcurrentHashMap<>();
+	private final LongAdder lostCount = new LongAdder();
+	private final Map<String, RateLimiter> rateLimiters = new ConcurrentHashMap<>();
+	private final LongAdder refreshedCount = new LongAdder();
+	private final JdbcUsersConnectionRepository repository;
+	private final Map<UserConnectionKey, Retry> retries = new ConcurrentHashMap<>();
+	private final ScheduledExecutorService scheduler;
+
+	private int batchSize = 100;
+	private Duration interval = Duration.ofMinutes(1);
+	private Duration maximumRetryDelay = Duration.ofHours(6);
+	private int pageSize = 500;
+	private int parallelism = 4;
+	private Duration refreshWindow = Duration.ofMinutes(10);
+	private ScheduledFuture<?> scheduledPass;
+
+	public ConnectionRefreshScheduler(JdbcUsersConnectionRepository repository, ScheduledExecutorService scheduler, Executor executor)
+	{
+		this.repository = Argument.notNull(repository, "repository");
+		this.scheduler = Argument.notNull(scheduler, "scheduler");
+		this.executor = Argument.notNull(executor, "executor");
+	}
+
+	public synchronized void start()
+	{
+		if (scheduledPass != null)
+			throw new IllegalStateException("The scheduler is already started.");
+
+		scheduledPass = scheduler.scheduleWithFixedDelay(this::runPass, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	public synchronized void stop()
+	{
+		if (scheduledPass == null)
+			return;
+
+		scheduledPass.cancel(false);
+		scheduledPass = null;
+	}
+
+	public long refreshExpiringConnections()
+	{
+		final int batchSize;
+		final int pageSize;
+		final int parallelism;
+		final long expiresBefore;
+		final long firstRetryDelay;
+		final long maximumRetryDelay;
+
+		synchronized (this)
+		{
+			batchSize = this.batchSize;
+			pageSize = this.pageSize;
+			parallelism = this.parallelism;
+			expiresBefore = System.currentTimeMillis() + refreshWindow.toMillis();
+			firstRetryDelay = interval.toMillis();
+			maximumRetryDelay = this.maximumRetryDelay.toMillis();
+		}
+
+		final var pass = new Pass(batchSize, firstRetryDelay, maximumRetryDelay);
+		final var permits = new Semaphore(parallelism);
+		var scanned = false;
+
+		try (final var connections = repository.streamExpiringConnections(expiresBefore, pageSize))
+		{
+			final var iterator = connections.iterator();
+
+			while (iterator.hasNext())
+			{
+				final var connection = iterator.next();
+				final var key = new UserConnectionKey(connection.getUserId(), connection.getConnection().getKey());
+
+				// A connection refreshed earlier in this pass can come round again if its new token is
+				// still inside the window; it is only refreshed once per pass.
+
+				if (!pass.start(key))
+					continue;
+
+				final var retry = retries.get(key);
+
+				if (retry != null && retry.nextAttemptTime > System.currentTimeMillis())
+					continue;
+
+				// The rate limit is waited out before a permit is taken, so the permits count refreshes in
+				// flight rather than threads waiting for their provider's next slot.
+
+				final var rateLimiter = rateLimiters.get(key.getConnectionKey().getProviderId());
+
+				if (rateLimiter != null)
+					rateLimiter.acquire();
+
+				backlog.incrementAndGet();
+				permits.acquire();
+
+				try
+				{
+					executor.execute(() ->
+					{
+						try
+						{
+							pass.refresh(key, connection);
+						}
+						finally
+						{
+							backlog.decrementAndGet();
+							permits.release();
+						}
+					});
+				}
+				catch (final RejectedExecutionException e)
+				{
+					backlog.decrementAndGet();
+					permits.release();
+
+					throw e;
+				}
+			}
+
+			permits.acquire(parallelism);
+			scanned = true;
+		}
+		catch (final InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+
+		pass.flush();
+
+		// After a complete scan, connections that no longer showed up (refreshed elsewhere, or removed)
+		// don't need their retry state any more.
+
+		if (scanned)
+			retries.keySet().retainAll(pass.startedKeys);
+
+		return pass.refreshedCount.sum();
+	}
+
+	public long getBacklog()
+	{
+		return backlog.get();
+	}
+
+	public long getFailureCount()
+	{
+		var failureCount = 0L;
+
+		for (final var providerFailureCount : failureCounts.values())
+			failureCount += providerFailureCount.sum();
+
+		return failureCount;
+	}
+
+	public Map<String, Long> getFailureCounts()
+	{
+		final var counts = new HashMap<String, Long>();
+
+		for (final var entry : failureCounts.entrySet())
+			counts.put(entry.getKey(), entry.getValue().sum());
+
+		return counts;
+	}
+
+	public long getLostCount()
+	{
+		return lostCount.sum();
+	}
+
+	public long getRefreshedCount()
+	{
+		return refreshedCount.sum();
+	}
+
+	public synchronized void setBatchSize(final int batchSize)
+	{
+		if (batchSize < 1)
+			throw new IllegalArgumentException("batchSize");
+
+		this.batchSize = batchSize;
+	}
+
+	public synchronized void setInterval(final Duration interval)
+	{
+		Argument.notNull(interval, "interval");
+
+		if (interval.isNegative() || interval.isZero())
+			throw new IllegalArgumentException("interval");
+
+		this.interval = interval;
+	}
+
+	public synchronized void setMaximumRetryDelay(final Duration maximumRetryDelay)
+	{
+		Argument.notNull(maximumRetryDelay, "maximumRetryDelay");
+
+		if (maximumRetryDelay.isNegative())
+			throw new IllegalArgumentException("maximumRetryDelay");
+
+		this.maximumRetryDelay = maximumRetryDelay;
+	}
+
+	public synchronized void setPageSize(final int pageSize)
+	{
+		if (pageSize < 1)
+			throw new IllegalArgumentException("pageSize");
+
+		this.pageSize = pageSize;
+	}
+
+	public synchronized void setParallelism(final int parallelism)
+	{
+		if (parallelism < 1)
+			throw new IllegalArgumentException("parallelism");
+
+		this.parallelism = parallelism;
+	}
+
+	public void setProviderRateLimit(final String providerId, final double refreshesPerSecond)
+	{
+		Argument.notNull(providerId, "providerId");
+
+		rateLimiters.put(providerId, new RateLimiter(refreshesPerSecond));
+	}
+
+	public synchronized void setRefreshWindow(final Duration refreshWindow)
+	{
+		Argument.notNull(refreshWindow, "refreshWindow");
+
+		if (refreshWindow.isNegative())
+			throw new IllegalArgumentException("refreshWindow");
+
+		this.refreshWindow = refreshWindow;
+	}
+
+	private void recordFailures(final String providerId, final int count)
+	{
+		failureCounts.computeIfAbsent(providerId, ignored -> new LongAdder()).add(count);
+	}
+
+	private void runPass()
+	{
+		// An exception escaping a periodic task would cancel every later pass.
+
+		try
+		{
+			refreshExpiringConnections();
+		}
+		catch (final RuntimeException e)
+		{
+			log.warn("Refreshing expiring connections failed.", e);
+		}
+	}
+
+	private final class Pass
+	{
+		private final int batchSize;
+		private final long firstRetryDelay;
+		private final long maximumRetryDelay;
+		private final List<UserConnection> pending = new ArrayList<>();
+		private final LongAdder refreshedCount = new LongAdder();
+		private final Set<UserConnectionKey> startedKeys = ConcurrentHashMap.newKeySet();
+
+		private Pass(final int batchSize, final long firstRetryDelay, final long maximumRetryDelay)
+		{
+			this.batchSize = batchSize;
+			this.firstRetryDelay = firstRetryDelay;
+			this.maximumRetryDelay = maximumRetryDelay;
+		}
+
+		private void flush()
+		{
+			final List<UserConnection> batch;
+
+			synchronized (pending)
+			{
+				batch = new ArrayList<>(pending);
+				pending.clear();
+			}
+
+			write(batch);
+		}
+
+		private void refresh(final UserConnectionKey key, final UserConnection userConnection)
+		{
+			final var connection = userConnection.getConnection();
+			final var providerId = key.getConnectionKey().getProviderId();
+
+			try
+			{
+				connection.refresh();
+			}
+			catch (final RuntimeException e)
+			{
+				log.debug("Refreshing a " + providerId + " connection failed.", e);
+				recordFailures(providerId, 1);
+				retries.merge(key, new Retry(1, Math.min(firstRetryDelay, maximumRetryDelay)), (retry, ignored) -> retry.next(firstRetryDelay, maximumRetryDelay));
+
+				return;
+			}
+
+			retries.remove(key);
+
+			List<UserConnection> batch = null;
+
+			synchronized (pending)
+			{
+				pending.add(userConnection);
+
+				if (pending.size() >= batchSize)
+				{
+					batch = new ArrayList<>(pending);
+					pending.clear();
+				}
+			}
+
+			if (batch != null)
+				write(batch);
+		}
+
+		private boolean start(final UserConnectionKey key)
+		{
+			return startedKeys.add(key);
+		}
+
+		private void write(final List<UserConnection> batch)
+		{
+			if (batch.isEmpty())
+				return;
+
+			try
+			{
+				repository.updateConnections(batch);
+			}
+			catch (final RuntimeException e)
+			{
+				// The refreshed tokens are lost. Providers that rotate refresh tokens have already spent the
+				// stored one, so these connections may not refresh again and need to be re-authorized.
+
+				final var keys = new ArrayList<String>(batch.size());
+
+				for (final var userConnection : batch)
+				{
+					final var connectionKey = userConnection.getConnection().getKey();
+
+					keys.add(userConnection.getUserId() + "/" + connectionKey.getProviderId() + "/" + connectionKey.getProviderUserId());
+					recordFailures(connectionKey.getProviderId(), 1);
+				}
+
+				lostCount.add(batch.size());
+				log.error("Writing refreshed connections failed; their new tokens are lost: " + keys, e);
+
+				return;
+			}
+
+			refreshedCount.add(batch.size());
+			ConnectionRefreshScheduler.this.refreshedCount.add(batch.size());
+		}
+	}
+
+	private static final class Retry
+	{
+		private final int failureCount;
+		private final long nextAttemptTime;
+
+		private Retry(final int failureCount, final long delay)
+		{
+			this.failureCount = failureCount;
+			this.nextAttemptTime = System.currentTimeMillis() + delay;
+		}
+
+		private Retry next(final long firstDelay, final long maximumDelay)
+		{
+			// The delay doubles with every failure in a row, up to the maximum.
+
+			final var delay = firstDelay << Math.min(failureCount, 30);
+
+			return new Retry(failureCount + 1, delay < 0 ? maximumDelay : Math.min(delay, maximumDelay));
+		}
+	}
+}
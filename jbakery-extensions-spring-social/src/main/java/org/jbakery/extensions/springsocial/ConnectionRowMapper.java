@@ -0,0 +1,217 @@
+package org.jbakery.extensions.springsocial;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import org.jbakery.arguments.Argument;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.security.crypto.encrypt.TextEncryptor;
+import org.springframework.social.connect.Connection;
+import org.springframework.social.connect.ConnectionData;
+import org.springframework.social.connect.ConnectionFactory;
+import org.springframework.social.connect.ConnectionFactoryLocator;
+
+final class ConnectionRowMapper
+	implements RowMapper<Connection<?>>
+{
+	private final ConnectionFactoryLocator connectionFactoryLocator;
+	private final boolean lazyTokenDecryption;
+	private final ResultSetExtractor<Connection<?>> firstRowExtractor = this::extractFirstConnection;
+	private final ResultSetExtractor<List<Connection<?>>> listExtractor = this::extractConnections;
+	private final RepositoryMetrics metrics;
+	private final TextEncryptor textEncryptor;
+
+	ConnectionRowMapper(
+		ConnectionFactoryLocator connectionFactoryLocator,
+		TextEncryptor textEncryptor,
+		boolean lazyTokenDecryption,
+		RepositoryMetrics metrics)
+	{
+		this.connectionFactoryLocator = Argument.notNull(connectionFactoryLocator, "connectionFactoryLocator");
+		this.textEncryptor = Argument.notNull(textEncryptor, "textEncryptor");
+		this.lazyTokenDecryption = lazyTokenDecryption;
+		this.metrics = Argument.notNull(metrics, "metrics");
+	}
+
+	@Override
+	public Connection<?> mapRow(final ResultSet results, final int index)
+		throws SQLException
+	{
+		// The statement catalog fixes the column order, so columns are read by position rather than by label.
+
+		final var start = metrics.isEnabled() ? System.nanoTime() : 0;
+
+		final var connection =
+			createConnection(
+				results.getString(StatementCatalog.PROVIDER_ID_COLUMN),
+				results.getString(StatementCatalog.PROVIDER_USER_ID_COLUMN),
+				results.getString(StatementCatalog.DISPLAY_NAME_COLUMN),
+				results.getString(StatementCatalog.PROFILE_URL_COLUMN),
+				results.getString(StatementCatalog.IMAGE_URL_COLUMN),
+				results.getString(StatementCatalog.ACCESS_TOKEN_COLUMN),
+				results.getString(StatementCatalog.SECRET_COLUMN),
+				results.getString(StatementCatalog.REFRESH_TOKEN_COLUMN),
+				nullIfZero(results.getLong(StatementCatalog.EXPIRE_TIME_COLUMN)));
+
+		if (metrics.isEnabled())
+			metrics.recordRowMapping(System.nanoTime() - start);
+
+		return connection;
+	}
+
+	Connection<?> createConnection(
+		final String providerId,
+		final String providerUserId,
+		final String displayName,
+		final String profileUrl,
+		final String imageUrl,
+		final String encryptedAccessToken,
+		final String encryptedSecret,
+		final String encryptedRefreshToken,
+		final Long expireTime)
+	{
+		final var connectionFactory = connectionFactoryLocator.getConnectionFactory(providerId);
+
+		// In lazy mode, the tokens stay encrypted until the connection actually needs its credentials.
+
+		if (lazyTokenDecryption)
+		{
+			return createLazyConnection(
+				connectionFactory,
+				new ConnectionData(
+					providerId,
+					providerUserId,
+					displayName,
+					profileUrl,
+					imageUrl,
+					encryptedAccessToken,
+					encryptedSecret,
+					encryptedRefreshToken,
+					expireTime));
+		}
+
+		final var connectionData =
+			new ConnectionData(
+				providerId,
+				providerUserId,
+				displayName,
+				profileUrl,
+				imageUrl,
+				Instrumentation.decrypt(metrics, textEncryptor, encryptedAccessToken),
+				Instrumentation.decrypt(metrics, textEncryptor, encryptedSecret),
+				Instrumentation.decrypt(metrics, textEncryptor, encryptedRefreshToken),
+				expireTime);
+
+		return Instrumentation.createConnection(metrics, connectionFactory, connectionData);
+	}
+
+	ResultSetExtractor<Connection<?>> getFirstRowExtractor()
+	{
+		return firstRowExtractor;
+	}
+
+	ResultSetExtractor<List<Connection<?>>> getListExtractor()
+	{
+		return listExtractor;
+	}
+
+	private List<Connection<?>> extractConnections(final ResultSet results)
+		throws SQLException
+	{
+		final var connections = new ArrayList<Connection<?>>();
+
+		if (lazyTokenDecryption)
+		{
+			while (results.next())
+				connections.add(mapRow(results, connections.size()));
+
+			return connections;
+		}
+
+		// Every row is read before any token is decrypted, so the tokens of a large result can be
+		// decrypted in a single bulk call rather than one at a time between reads.
+
+		final var start = metrics.isEnabled() ? System.nanoTime() : 0;
+		final var rows = new ArrayList<ConnectionData>();
+		final var encryptedTokens = new ArrayList<String>();
+
+		while (results.next())
+		{
+			rows.add(
+				new ConnectionData(
+					results.getString(StatementCatalog.PROVIDER_ID_COLUMN),
+					results.getString(StatementCatalog.PROVIDER_USER_ID_COLUMN),
+					results.getString(StatementCatalog.DISPLAY_NAME_COLUMN),
+					results.getString(StatementCatalog.PROFILE_URL_COLUMN),
+					results.getString(StatementCatalog.IMAGE_URL_COLUMN),
+					null,
+					null,
+					null,
+					nullIfZero(results.getLong(StatementCatalog.EXPIRE_TIME_COLUMN))));
+
+			encryptedTokens.add(results.getString(StatementCatalog.ACCESS_TOKEN_COLUMN));
+			encryptedTokens.add(results.getString(StatementCatalog.SECRET_COLUMN));
+			encryptedTokens.add(results.getString(StatementCatalog.REFRESH_TOKEN_COLUMN));
+		}
+
+		final var tokens = Instrumentation.decryptAll(metrics, textEncryptor, encryptedTokens);
+
+		for (var index = 0; index < rows.size(); index++)
+		{
+			final var row = rows.get(index);
+
+			final var connectionData =
+				new ConnectionData(
+					row.getProviderId(),
+					row.getProviderUserId(),
+					row.getDisplayName(),
+					row.getProfileUrl(),
+					row.getImageUrl(),
+					tokens.get(index * 3),
+					tokens.get(index * 3 + 1),
+					tokens.get(index * 3 + 2),
+					row.getExpireTime());
+
+			connections.add(Instrumentation.createConnection(metrics, connectionFactoryLocator.getConnectionFactory(row.getProviderId()), connectionData));
+		}
+
+		// The rows are mapped together, so each one is recorded with its share of the whole extraction,
+		// which like mapRow covers reading the columns, decrypting the tokens and creating the connection.
+
+		if (metrics.isEnabled() && !connections.isEmpty())
+		{
+			final var rowMappingNanos = (System.nanoTime() - start) / connections.size();
+
+			for (var index = 0; index < connections.size(); index++)
+				metrics.recordRowMapping(rowMappingNanos);
+		}
+
+		return connections;
+	}
+
+	private Connection<?> extractFirstConnection(final ResultSet results)
+		throws SQLException
+	{
+		// Only the first (lowest-ranked) row is mapped, even when the dialect can't limit the query.
+
+		if (!results.next())
+			return null;
+
+		return mapRow(results, 0);
+	}
+
+	private <A> Connection<A> createLazyConnection(final ConnectionFactory<A> connectionFactory, final ConnectionData encryptedData)
+	{
+		return new LazyConnection<>(connectionFactory, encryptedData, textEncryptor, metrics);
+	}
+
+	static Long nullIfZero(final Long value)
+	{
+		if (value == null || value == 0)
+			return null;
+
+		return value;
+	}
+}
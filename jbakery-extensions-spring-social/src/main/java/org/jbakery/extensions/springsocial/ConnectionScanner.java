@@ -0,0 +1,278 @@
+package org.jbakery.extensions.springsocial;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.jbakery.arguments.Argument;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.jdbc.support.JdbcUtils;
+
+final class ConnectionScanner
+{
+	private final JdbcTemplate jdbcTemplate;
+	private final ConnectionRowMapper mapper;
+	private final RowMapper<PageRow> pageRowMapper = this::mapPageRow;
+	private final StatementCatalog statements;
+
+	ConnectionScanner(JdbcTemplate jdbcTemplate, StatementCatalog statements, ConnectionRowMapper mapper)
+	{
+		this.jdbcTemplate = Argument.notNull(jdbcTemplate, "jdbcTemplate");
+		this.statements = Argument.notNull(statements, "statements");
+		this.mapper = Argument.notNull(mapper, "mapper");
+	}
+
+	Stream<UserConnection> streamConnections(final int fetchSize)
+	{
+		// Some drivers (e.g. PostgreSQL, MySQL) only honor the fetch size when the scan runs inside a
+		// transaction, so outside one the cursor's connection is taken out of autocommit until the stream closes.
+
+		final var dataSource = jdbcTemplate.getDataSource();
+		final var query = statements.getScanConnections();
+		final var connection = DataSourceUtils.getConnection(dataSource);
+
+		PreparedStatement statement = null;
+		ResultSet results = null;
+		var restoreAutoCommit = false;
+
+		try
+		{
+			if (!DataSourceUtils.isConnectionTransactional(connection, dataSource) && connection.getAutoCommit())
+			{
+				connection.setAutoCommit(false);
+				restoreAutoCommit = true;
+			}
+
+			statement = connection.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			statement.setFetchSize(fetchSize);
+			results = statement.executeQuery();
+		}
+		catch (final SQLException e)
+		{
+			JdbcUtils.closeResultSet(results);
+			JdbcUtils.closeStatement(statement);
+			release(connection, restoreAutoCommit);
+
+			throw jdbcTemplate.getExceptionTranslator().translate("streamConnections", query, e);
+		}
+
+		final var openStatement = statement;
+		final var openResults = results;
+		final var autoCommitDisabled = restoreAutoCommit;
+
+		return StreamSupport
+			.stream(new CursorSpliterator(query, openResults), false)
+			.onClose(() ->
+			{
+				JdbcUtils.closeResultSet(openResults);
+				JdbcUtils.closeStatement(openStatement);
+				release(connection, autoCommitDisabled);
+			});
+	}
+
+	Stream<UserConnection> streamConnectionsByPage(final int pageSize)
+	{
+		final PageQuery pageQuery = (template, lastRow) ->
+		{
+			if (lastRow == null)
+				return template.query(statements.getScanFirstPage(pageSize), pageRowMapper);
+
+			return template.query(
+				statements.getScanNextPage(pageSize),
+				pageRowMapper,
+				lastRow.getUserId(),
+				lastRow.getUserId(),
+				lastRow.getUserId(),
+				lastRow.getProviderId(),
+				lastRow.getProviderId(),
+				lastRow.rank);
+		};
+
+		return StreamSupport.stream(new PageSpliterator(pageSize, pageQuery), false);
+	}
+
+	Stream<UserConnection> streamExpiringConnections(final long expiresBefore, final int pageSize)
+	{
+		final PageQuery pageQuery = (template, lastRow) ->
+		{
+			if (lastRow == null)
+				return template.query(statements.getScanExpiringFirstPage(pageSize), pageRowMapper, expiresBefore);
+
+			return template.query(
+				statements.getScanExpiringNextPage(pageSize),
+				pageRowMapper,
+				expiresBefore,
+				lastRow.expireTime,
+				lastRow.expireTime,
+				lastRow.getUserId(),
+				lastRow.getUserId(),
+				lastRow.getProviderId(),
+				lastRow.getProviderId(),
+				lastRow.rank);
+		};
+
+		return StreamSupport.stream(new PageSpliterator(pageSize, pageQuery), false);
+	}
+
+	private void release(final Connection connection, final boolean restoreAutoCommit)
+	{
+		// The scan only reads, so its transaction is rolled back rather than committed.
+
+		try
+		{
+			if (restoreAutoCommit)
+			{
+				connection.rollback();
+				connection.setAutoCommit(true);
+			}
+		}
+		catch (final SQLException e)
+		{
+			throw jdbcTemplate.getExceptionTranslator().translate("streamConnections", null, e);
+		}
+		finally
+		{
+			DataSourceUtils.releaseConnection(connection, jdbcTemplate.getDataSource());
+		}
+	}
+
+	private PageRow mapPageRow(final ResultSet results, final int index)
+		throws SQLException
+	{
+		return new PageRow(mapUserConnection(results, index), results.getInt(StatementCatalog.RANK_COLUMN), results.getLong(StatementCatalog.EXPIRE_TIME_COLUMN));
+	}
+
+	private UserConnection mapUserConnection(final ResultSet results, final int index)
+		throws SQLException
+	{
+		return new UserConnection(results.getString(StatementCatalog.USER_ID_COLUMN), mapper.mapRow(results, index));
+	}
+
+	private final class CursorSpliterator
+		extends Spliterators.AbstractSpliterator<UserConnection>
+	{
+		private int index;
+		private final String query;
+		private final ResultSet results;
+
+		private CursorSpliterator(final String query, final ResultSet results)
+		{
+			super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+
+			this.query = query;
+			this.results = results;
+		}
+
+		@Override
+		public boolean tryAdvance(final Consumer<? super UserConnection> action)
+		{
+			try
+			{
+				if (!results.next())
+					return false;
+
+				action.accept(mapUserConnection(results, index++));
+
+				return true;
+			}
+			catch (final SQLException e)
+			{
+				throw jdbcTemplate.getExceptionTranslator().translate("streamConnections", query, e);
+			}
+		}
+	}
+
+	@FunctionalInterface
+	private interface PageQuery
+	{
+		List<PageRow> query(JdbcTemplate template, PageRow lastRow);
+	}
+
+	private final class PageSpliterator
+		extends Spliterators.AbstractSpliterator<UserConnection>
+	{
+		private boolean lastPage;
+		private PageRow lastRow;
+		private Iterator<PageRow> page = Collections.emptyIterator();
+		private final PageQuery pageQuery;
+		private final int pageSize;
+		private final JdbcTemplate template;
+
+		private PageSpliterator(final int pageSize, final PageQuery pageQuery)
+		{
+			super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+
+			if (pageSize < 1)
+				throw new IllegalArgumentException("pageSize");
+
+			this.pageSize = pageSize;
+			this.pageQuery = pageQuery;
+			this.template = new JdbcTemplate(jdbcTemplate.getDataSource());
+
+			// Cap the rows for dialects that can't limit the query themselves.
+
+			template.setFetchSize(pageSize);
+			template.setMaxRows(pageSize);
+		}
+
+		@Override
+		public boolean tryAdvance(final Consumer<? super UserConnection> action)
+		{
+			if (!page.hasNext())
+			{
+				if (lastPage)
+					return false;
+
+				final var rows = pageQuery.query(template, lastRow);
+
+				// A short page means the table is exhausted; only the current page is ever held in memory.
+
+				lastPage = rows.size() < pageSize;
+				page = rows.iterator();
+
+				if (!page.hasNext())
+					return false;
+			}
+
+			lastRow = page.next();
+
+			action.accept(lastRow.userConnection);
+
+			return true;
+		}
+	}
+
+	private static final class PageRow
+	{
+		private final long expireTime;
+		private final int rank;
+		private final UserConnection userConnection;
+
+		private PageRow(final UserConnection userConnection, final int rank, final long expireTime)
+		{
+			this.userConnection = userConnection;
+			this.rank = rank;
+			this.expireTime = expireTime;
+		}
+
+		private String getProviderId()
+		{
+			return userConnection.getConnection().getKey().getProviderId();
+		}
+
+		private String getUserId()
+		{
+			return userConnection.getUserId();
+		}
+	}
+}
@@ -0,0 +1,39 @@
+package org.jbakery.extensions.springsocial;
+
+import org.jbakery.arguments.Argument;
+
+public final class ConnectionSummary
+{
+	private final String displayName;
+	private final String imageUrl;
+	private final String providerId;
+	private final String providerUserId;
+
+	public ConnectionSummary(String providerId, String providerUserId, String displayName, String imageUrl)
+	{
+		this.providerId = Argument.notNull(providerId, "providerId");
+		this.providerUserId = providerUserId;
+		this.displayName = displayName;
+		this.imageUrl = imageUrl;
+	}
+
+	public String getDisplayName()
+	{
+		return displayName;
+	}
+
+	public String getImageUrl()
+	{
+		return imageUrl;
+	}
+
+	public String getProviderId()
+	{
+		return providerId;
+	}
+
+	public String getProviderUserId()
+	{
+		return providerUserId;
+	}
+}
@@ -0,0 +1,195 @@
+package org.jbakery.extensions.springsocial;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.jbakery.arguments.Argument;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.social.connect.Connection;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+
+final class ConnectionsToUsersQuery
+{
+	// Oracle caps IN lists at 1000 items and SQL Server caps statements at 2100 parameters.
+
+	private static final int MAXIMUM_IN_LIST_SIZE = 1000;
+	private static final int MAXIMUM_PARAMETER_COUNT = 2000;
+
+	private final List<Chunk> chunks = new ArrayList<>();
+	private final Map<String, Map<String, Integer>> providerUserIndexes;
+	private final MultiValueMap<String, String> providerUsers;
+
+	ConnectionsToUsersQuery(
+		final StatementCatalog statements,
+		final String userId,
+		final MultiValueMap<String, String> providerUsers,
+		final boolean chunkPerProvider)
+	{
+		Argument.notNull(statements, "statements");
+		Argument.notNull(userId, "userId");
+		Argument.notNull(providerUsers, "providerUsers");
+
+		this.providerUsers = providerUsers;
+		this.providerUserIndexes = new HashMap<>(providerUsers.size() * 2);
+
+		ChunkBuilder chunk = null;
+
+		for (final var entry : providerUsers.entrySet())
+		{
+			final var providerId = entry.getKey();
+			final var providerUserIds = entry.getValue();
+
+			if (providerUserIds == null || providerUserIds.isEmpty())
+				continue;
+
+			// Index each provider user's position once, so results are placed without searching the list.
+
+			final var indexes = new HashMap<String, Integer>(providerUserIds.size() * 2);
+
+			for (var i = 0; i < providerUserIds.size(); i++)
+				indexes.putIfAbsent(providerUserIds.get(i), i);
+
+			providerUserIndexes.put(providerId, indexes);
+
+			// When chunks run in parallel, giving each provider its own keeps one slow provider from delaying the rest.
+
+			if (chunkPerProvider && chunk != null)
+			{
+				chunks.add(chunk.build());
+				chunk = null;
+			}
+
+			// Split oversized lists into bounded IN lists, and pack the lists into as few statements as fit.
+
+			for (var offset = 0; offset < providerUserIds.size(); offset += MAXIMUM_IN_LIST_SIZE)
+			{
+				final var part = providerUserIds.subList(offset, Math.min(offset + MAXIMUM_IN_LIST_SIZE, providerUserIds.size()));
+
+				if (chunk != null && chunk.parameterCount + part.size() + 1 > MAXIMUM_PARAMETER_COUNT)
+				{
+					chunks.add(chunk.build());
+					chunk = null;
+				}
+
+				if (chunk == null)
+					chunk = new ChunkBuilder(statements, userId);
+
+				chunk.add(providerId, part);
+			}
+		}
+
+		if (chunk != null)
+			chunks.add(chunk.build());
+	}
+
+	MultiValueMap<String, Connection<?>> arrange(final Iterable<Connection<?>> connections)
+	{
+		// Providers are emitted in order of their IDs, matching the single ordered query this replaces.
+
+		final var slotsByProvider = new TreeMap<String, Connection<?>[]>();
+
+		for (final var connection : connections)
+		{
+			final var providerId = connection.getKey().getProviderId();
+			final var indexes = providerUserIndexes.get(providerId);
+
+			if (indexes == null)
+				continue;
+
+			final var index = indexes.get(connection.getKey().getProviderUserId());
+
+			if (index == null)
+				continue;
+
+			var slots = slotsByProvider.get(providerId);
+
+			if (slots == null)
+			{
+				slots = new Connection<?>[providerUsers.get(providerId).size()];
+				slotsByProvider.put(providerId, slots);
+			}
+
+			slots[index] = connection;
+		}
+
+		final var connectionsForUsers = new LinkedMultiValueMap<String, Connection<?>>(slotsByProvider.size());
+
+		for (final var entry : slotsByProvider.entrySet())
+			connectionsForUsers.put(entry.getKey(), new ArrayList<>(Arrays.asList(entry.getValue())));
+
+		return connectionsForUsers;
+	}
+
+	List<Chunk> getChunks()
+	{
+		return chunks;
+	}
+
+	static final class Chunk
+	{
+		private final MapSqlParameterSource parameters;
+		private final String query;
+
+		private Chunk(final String query, final MapSqlParameterSource parameters)
+		{
+			this.query = query;
+			this.parameters = parameters;
+		}
+
+		MapSqlParameterSource getParameters()
+		{
+			return parameters;
+		}
+
+		String getQuery()
+		{
+			return query;
+		}
+	}
+
+	private static final class ChunkBuilder
+	{
+		private int criterionCount;
+		private int parameterCount = 1;
+		private final MapSqlParameterSource parameters = new MapSqlParameterSource();
+		private final StringBuilder query;
+		private final StatementCatalog statements;
+
+		private ChunkBuilder(final StatementCatalog statements, final String userId)
+		{
+			this.statements = statements;
+			this.query = new StringBuilder(statements.getFindConnectionsToUsersPrefix());
+
+			parameters.addValue("userId", userId);
+		}
+
+		private void add(final String providerId, final List<String> providerUserIds)
+		{
+			// Parameters are named by position, so provider IDs never have to be valid parameter names.
+
+			final var index = criterionCount++;
+
+			if (index > 0)
+				query.append(" OR ");
+
+			query
+				.append(statements.getProviderIdCriterion()).append(index).append(" AND ")
+				.append(statements.getProviderUserIdCriterion()).append(index).append(')');
+
+			parameters.addValue("providerId_" + index, providerId);
+			parameters.addValue("providerUserIds_" + index, providerUserIds);
+			parameterCount += providerUserIds.size() + 1;
+		}
+
+		private Chunk build()
+		{
+			query.append(statements.getFindConnectionsToUsersSuffix());
+
+			return new Chunk(query.toString(), parameters);
+		}
+	}
+}
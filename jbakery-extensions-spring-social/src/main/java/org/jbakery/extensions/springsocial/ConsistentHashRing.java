@@ -0,0 +1,79 @@
+package org.jbakery.extensions.springsocial;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+import org.jbakery.arguments.Argument;
+
+final class ConsistentHashRing<T>
+{
+	// Each node is placed on the ring many times, so keys spread evenly and adding or removing a
+	// node only moves the keys adjacent to its points.
+
+	private static final int VIRTUAL_NODE_COUNT = 160;
+
+	private final TreeMap<Long, String> ring = new TreeMap<>();
+	private final Map<String, T> nodes;
+
+	ConsistentHashRing(Map<String, T> nodes)
+	{
+		Argument.notNull(nodes, "nodes");
+
+		if (nodes.isEmpty())
+			throw new IllegalArgumentException("nodes");
+
+		this.nodes = Map.copyOf(nodes);
+
+		for (final var name : this.nodes.keySet())
+		{
+			for (var index = 0; index < VIRTUAL_NODE_COUNT; index++)
+				ring.put(hash(name + "#" + index), name);
+		}
+	}
+
+	T get(final String key)
+	{
+		return nodes.get(getName(key));
+	}
+
+	String getName(final String key)
+	{
+		final var entry = ring.ceilingEntry(hash(key));
+
+		if (entry == null)
+			return ring.firstEntry().getValue();
+
+		return entry.getValue();
+	}
+
+	Map<String, T> getNodes()
+	{
+		return nodes;
+	}
+
+	private static long hash(final String value)
+	{
+		// MD5 is stable across JVMs and processes, unlike String.hashCode, which isn't guaranteed to spread well.
+
+		final MessageDigest digest;
+
+		try
+		{
+			digest = MessageDigest.getInstance("MD5");
+		}
+		catch (final NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException("MD5 is not available.", e);
+		}
+
+		final var bytes = digest.digest(value.getBytes(StandardCharsets.UTF_8));
+		var hash = 0L;
+
+		for (var index = 0; index < Long.BYTES; index++)
+			hash = (hash << 8) | (bytes[index] & 0xFF);
+
+		return hash;
+	}
+}
@@ -0,0 +1,152 @@
+package org.jbakery.extensions.springsocial;
+
+import java.sql.Types;
+import java.util.Locale;
+import javax.sql.DataSource;
+import org.jbakery.arguments.Argument;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.MetaDataAccessException;
+
+public enum DatabaseDialect
+{
+	GENERIC,
+	H2,
+	MYSQL,
+	ORACLE,
+	POSTGRESQL,
+	SQL_SERVER;
+
+	public static DatabaseDialect detect(final DataSource dataSource)
+	{
+		Argument.notNull(dataSource, "dataSource");
+
+		final String productName;
+
+		try
+		{
+			productName = JdbcUtils.extractDatabaseMetaData(dataSource, "getDatabaseProductName");
+		}
+		catch (final MetaDataAccessException e)
+		{
+			return GENERIC;
+		}
+
+		return fromProductName(productName);
+	}
+
+	public static DatabaseDialect fromProductName(final String productName)
+	{
+		if (productName == null)
+			return GENERIC;
+
+		final var name = productName.toLowerCase(Locale.ROOT);
+
+		if (name.startsWith("h2"))
+			return H2;
+
+		if (name.startsWith("postgresql"))
+			return POSTGRESQL;
+
+		if (name.startsWith("mysql") || name.startsWith("mariadb"))
+			return MYSQL;
+
+		if (name.contains("sql server"))
+			return SQL_SERVER;
+
+		if (name.startsWith("oracle"))
+			return ORACLE;
+
+		return GENERIC;
+	}
+
+	String bindMarkers(final String query)
+	{
+		// R2DBC drivers use their database's native bind markers rather than JDBC's "?". The catalog's
+		// statements contain no string literals, so every "?" is a parameter.
+
+		final String prefix;
+		final int firstIndex;
+
+		switch (this)
+		{
+			case H2:
+			case POSTGRESQL:
+				prefix = "$";
+				firstIndex = 1;
+				break;
+
+			case SQL_SERVER:
+				prefix = "@P";
+				firstIndex = 0;
+				break;
+
+			default:
+				return query;
+		}
+
+		final var builder = new StringBuilder(query.length() + 16);
+		var index = firstIndex;
+
+		for (var position = 0; position < query.length(); position++)
+		{
+			final var character = query.charAt(position);
+
+			if (character == '?')
+				builder.append(prefix).append(index++);
+			else
+				builder.append(character);
+		}
+
+		return builder.toString();
+	}
+
+	String columnType(final int sqlType, final int length)
+	{
+		switch (sqlType)
+		{
+			case Types.BIGINT:
+				return this == ORACLE ? "NUMBER(19)" : "BIGINT";
+
+			case Types.INTEGER:
+				return this == ORACLE ? "NUMBER(10)" : "INT";
+
+			default:
+				return (this == ORACLE ? "VARCHAR2(" : "VARCHAR(") + length + ")";
+		}
+	}
+
+	String limit(final String query, final int rows)
+	{
+		// The query is expected to end with its ORDER BY clause.
+
+		switch (this)
+		{
+			case H2:
+			case MYSQL:
+			case POSTGRESQL:
+				return query + " LIMIT " + rows;
+
+			case ORACLE:
+				return query + " FETCH FIRST " + rows + " ROWS ONLY";
+
+			case SQL_SERVER:
+				return query + " OFFSET 0 ROWS FETCH NEXT " + rows + " ROWS ONLY";
+
+			default:
+				return query;
+		}
+	}
+
+	String typedParameter(final int sqlType)
+	{
+		// PostgreSQL can't infer the type of a parameter that appears in a SELECT list, so it is spelled out.
+
+		if (this != POSTGRESQL)
+			return "?";
+
+		if (sqlType == Types.BIGINT)
+			return "CAST(? AS BIGINT)";
+
+		return "CAST(? AS VARCHAR)";
+	}
+}
@@ -0,0 +1,117 @@
+package org.jbakery.extensions.springsocial;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Supplier;
+import org.springframework.security.crypto.encrypt.TextEncryptor;
+import org.springframework.social.connect.Connection;
+import org.springframework.social.connect.ConnectionData;
+import org.springframework.social.connect.ConnectionFactory;
+
+final class Instrumentation
+{
+	private Instrumentation()
+	{
+	}
+
+	// Every helper checks isEnabled() first, so disabled metrics cost no clock reads.
+
+	static <A> Connection<A> createConnection(final RepositoryMetrics metrics, final ConnectionFactory<A> connectionFactory, final ConnectionData connectionData)
+	{
+		if (!metrics.isEnabled())
+			return connectionFactory.createConnection(connectionData);
+
+		final var start = System.nanoTime();
+		final var connection = connectionFactory.createConnection(connectionData);
+
+		metrics.recordConnectionCreation(System.nanoTime() - start);
+
+		return connection;
+	}
+
+	static String decrypt(final RepositoryMetrics metrics, final TextEncryptor textEncryptor, final String ciphertext)
+	{
+		if (ciphertext == null)
+			return null;
+
+		if (!metrics.isEnabled())
+			return textEncryptor.decrypt(ciphertext);
+
+		final var start = System.nanoTime();
+		final var plaintext = textEncryptor.decrypt(ciphertext);
+
+		metrics.recordDecryption(System.nanoTime() - start);
+
+		return plaintext;
+	}
+
+	static List<String> decryptAll(final RepositoryMetrics metrics, final TextEncryptor textEncryptor, final List<String> ciphertexts)
+	{
+		// A bulk call is recorded as a single decryption covering all of its values.
+
+		if (!metrics.isEnabled())
+			return BulkTextEncryptor.of(textEncryptor).decryptAll(ciphertexts);
+
+		final var start = System.nanoTime();
+		final var plaintexts = BulkTextEncryptor.of(textEncryptor).decryptAll(ciphertexts);
+
+		metrics.recordDecryption(System.nanoTime() - start);
+
+		return plaintexts;
+	}
+
+	static String encrypt(final RepositoryMetrics metrics, final TextEncryptor textEncryptor, final String plaintext)
+	{
+		if (plaintext == null)
+			return null;
+
+		if (!metrics.isEnabled())
+			return textEncryptor.encrypt(plaintext);
+
+		final var start = System.nanoTime();
+		final var ciphertext = textEncryptor.encrypt(plaintext);
+
+		metrics.recordEncryption(System.nanoTime() - start);
+
+		return ciphertext;
+	}
+
+	static List<String> encryptAll(final RepositoryMetrics metrics, final TextEncryptor textEncryptor, final List<String> plaintexts)
+	{
+		if (!metrics.isEnabled())
+			return BulkTextEncryptor.of(textEncryptor).encryptAll(plaintexts);
+
+		final var start = System.nanoTime();
+		final var ciphertexts = BulkTextEncryptor.of(textEncryptor).encryptAll(plaintexts);
+
+		metrics.recordEncryption(System.nanoTime() - start);
+
+		return ciphertexts;
+	}
+
+	static <T> T query(final RepositoryMetrics metrics, final String operation, final Supplier<T> query)
+	{
+		if (!metrics.isEnabled())
+			return query.get();
+
+		final var start = System.nanoTime();
+		final var result = query.get();
+
+		metrics.recordQuery(operation, System.nanoTime() - start);
+
+		if (result instanceof Collection<?>)
+			metrics.recordRowCount(operation, ((Collection<?>)result).size());
+
+		return result;
+	}
+
+	static void update(final RepositoryMetrics metrics, final String operation, final Runnable update)
+	{
+		query(metrics, operation, () ->
+		{
+			update.run();
+
+			return null;
+		});
+	}
+}
@@ -1,21 +1,25 @@
 package org.jbakery.extensions.springsocial;
 
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
 import org.jbakery.arguments.Argument;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.dao.PessimisticLockingFailureException;
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.jdbc.core.RowMapper;
-import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.support.JdbcUtils;
 import org.springframework.security.crypto.encrypt.TextEncryptor;
 import org.springframework.social.connect.Connection;
-import org.springframework.social.connect.ConnectionData;
 import org.springframework.social.connect.ConnectionFactoryLocator;
 import org.springframework.social.connect.ConnectionKey;
 import org.springframework.social.connect.ConnectionRepository;
@@ -29,12 +33,20 @@ import org.springframework.util.MultiValueMap;
 public final class JdbcConnectionRepository
 	implements ConnectionRepository
 {
+	static final int MAX_RANK_ATTEMPTS = 10;
+
+	private final RequestCoalescer coalescer;
 	private final ConnectionFactoryLocator connectionFactoryLocator;
-	private final JdbcTemplate jdbcTemplate;
-	private final ConnectionRowMapper mapper = new ConnectionRowMapper();
-	private final SchemaConfiguration schemaConfiguration;
+	private final Executor executor;
+	private final ConnectionRowMapper mapper;
+	private final RepositoryMetrics metrics;
+	private final ReadRouter router;
+	private final Savepoints savepoints;
+	private final StatementCatalog statements;
 	private final TextEncryptor textEncryptor;
+	private final UserIdCache userIdCache;
 	private final String userId;
+	private final WriteTracker writeTracker = new WriteTracker();
 
 	public JdbcConnectionRepository(
 		ConnectionFactoryLocator connectionFactoryLocator,
@@ -43,58 +55,113 @@ public final class JdbcConnectionRepository
 		TextEncryptor textEncryptor,
 		String userId)
 	{
-		this.connectionFactoryLocator = Argument.notNull(connectionFactoryLocator, "connectionFactoryLocator");
-		this.jdbcTemplate = Argument.notNull(jdbcTemplate, "jdbcTemplate");
-		this.schemaConfiguration = Argument.notNull(schemaConfiguration, "schemaConfiguration");
-		this.textEncryptor = Argument.notNull(textEncryptor, "textEncryptor");
+		this(
+			new RepositoryContext(
+				connectionFactoryLocator,
+				new ReadRouter(Argument.notNull(jdbcTemplate, "jdbcTemplate")),
+				new StatementCatalog(Argument.notNull(schemaConfiguration, "schemaConfiguration"), DatabaseDialect.GENERIC),
+				textEncryptor,
+				false,
+				RepositoryExecutors.getQueries(),
+				null,
+				null,
+				RepositoryMetrics.NONE,
+				null),
+			userId);
+	}
+
+	JdbcConnectionRepository(RepositoryContext context, String userId)
+	{
+		// The collaborators are shared with every other repository of the same context; only the userId is our own.
+
+		Argument.notNull(context, "context");
+
+		this.connectionFactoryLocator = context.getConnectionFactoryLocator();
+		this.router = context.getRouter();
+		this.savepoints = context.getSavepoints();
+		this.statements = context.getStatements();
+		this.textEncryptor = context.getTextEncryptor();
+		this.executor = context.getExecutor();
+		this.userIdCache = context.getUserIdCache();
+		this.coalescer = context.getCoalescer();
+		this.metrics = context.getMetrics();
+		this.mapper = context.getMapper();
 		this.userId = Argument.notNull(userId, "userId");
 	}
 
 	@Override
 	public MultiValueMap<String, Connection<?>> findAllConnections()
 	{
-		final var query =
-			String.format(
-				"%s WHERE %s = ? AND %s = ? ORDER BY %s",
-				selectAll(),
-				schemaConfiguration.getUserIdColumnName(),
-				schemaConfiguration.getProviderIdColumnName(),
-				schemaConfiguration.getRankColumnName());
-
-		final var results = jdbcTemplate.query(query, mapper, userId);
+		final var results = Instrumentation.query(metrics, "findAllConnections", () -> read(template -> template.query(statements.getFindAllConnections(), mapper.getListExtractor(), userId)));
 		final var connections = new LinkedMultiValueMap<String, Connection<?>>();
-		final var registeredProviderIds = connectionFactoryLocator.registeredProviderIds();
 
-		for (final var registeredProviderId : registeredProviderIds)
+		// Registered providers come first and keep their place, with an empty list unless they have connections.
+
+		for (final var registeredProviderId : connectionFactoryLocator.registeredProviderIds())
 			connections.put(registeredProviderId, Collections.emptyList());
 
-		for (final var connection : results)
+		// The rows arrive ordered by provider, so each provider's connections are one contiguous run that
+		// is copied into a list of exactly its size.
+
+		var start = 0;
+
+		while (start < results.size())
 		{
-			final var providerId = connection.getKey().getProviderId();
+			final var providerId = results.get(start).getKey().getProviderId();
+			var end = start + 1;
+
+			while (end < results.size() && results.get(end).getKey().getProviderId().equals(providerId))
+				end++;
 
-			if (!connections.containsKey(providerId))
-				connections.put(providerId, new LinkedList<>());
+			connections.put(providerId, new ArrayList<>(results.subList(start, end)));
 
-			connections.add(providerId, connection);
+			start = end;
 		}
 
 		return connections;
 	}
 
+	public ConnectionPage<Connection<?>> findConnectionPage(final String providerId, final ConnectionCursor after, final int pageSize)
+	{
+		if (pageSize < 1)
+			throw new IllegalArgumentException("pageSize");
+
+		final var query = statements.getFindConnectionPage(providerId != null, after != null, pageSize + 1);
+		final var extractor = new ConnectionPageExtractor<>(mapper, StatementCatalog.PROVIDER_ID_COLUMN, StatementCatalog.RANK_COLUMN, pageSize);
+		final var parameters = getPageParameters(providerId, after);
+
+		return Instrumentation.query(metrics, "findConnectionPage", () -> queryPage(query, extractor, parameters, pageSize + 1));
+	}
+
+	public ConnectionPage<ConnectionSummary> findConnectionSummaryPage(final String providerId, final ConnectionCursor after, final int pageSize)
+	{
+		if (pageSize < 1)
+			throw new IllegalArgumentException("pageSize");
+
+		// Summaries are built straight from their columns, without decrypting tokens or creating connections.
+
+		final var query = statements.getFindConnectionSummaryPage(providerId != null, after != null, pageSize + 1);
+		final var extractor = new ConnectionPageExtractor<>(JdbcConnectionRepository::mapSummary, StatementCatalog.SUMMARY_PROVIDER_ID_COLUMN, StatementCatalog.SUMMARY_RANK_COLUMN, pageSize);
+		final var parameters = getPageParameters(providerId, after);
+
+		return Instrumentation.query(metrics, "findConnectionSummaryPage", () -> queryPage(query, extractor, parameters, pageSize + 1));
+	}
+
 	@Override
 	public List<Connection<?>> findConnections(final String providerId)
 	{
 		Argument.notNull(providerId, "providerId");
 
-		final var query =
-			String.format(
-				"%s WHERE %s = ? AND %s = ? ORDER BY %s",
-				selectAll(),
-				schemaConfiguration.getUserIdColumnName(),
-				schemaConfiguration.getProviderIdColumnName(),
-				schemaConfiguration.getRankColumnName());
+		// Transactional reads, and reads shortly after this repository wrote, must not join a shared read.
+
+		if (coalescer == null || !router.canShareRead(writeTracker))
+			return queryConnections(providerId);
 
-		return jdbcTemplate.query(query, mapper, userId, providerId);
+		// Concurrent identical reads share one query; each caller gets its own copy of the list.
+
+		final var key = Arrays.asList("findConnections", userId, providerId);
+
+		return new ArrayList<>(coalescer.execute(key, () -> queryConnections(providerId)));
 	}
 
 	@Override
@@ -115,63 +182,62 @@ public final class JdbcConnectionRepository
 		if (providerUsers.isEmpty())
 			throw new IllegalArgumentException("providerUsers");
 
-		final var criteria = new StringBuilder();
-		final var parameters = new MapSqlParameterSource();
+		final var query = new ConnectionsToUsersQuery(statements, userId, providerUsers, false);
+		final var results = new ArrayList<Connection<?>>();
 
-		parameters.addValue("userId", userId);
-
-		for (final var iterator = providerUsers.entrySet().iterator(); iterator.hasNext();)
+		for (final var chunk : query.getChunks())
 		{
-			final var entry = iterator.next();
-			final var providerId = entry.getKey();
+			results.addAll(
+				Instrumentation.query(
+					metrics,
+					"findConnectionsToUsers",
+					() -> readNamed(template -> template.query(chunk.getQuery(), chunk.getParameters(), mapper.getListExtractor()))));
+		}
 
-			criteria
-				.append(String.format("%s = :providerId_%s AND ", schemaConfiguration.getProviderIdColumnName(), providerId))
-				.append(String.format("%s IN (:providerUserIds_%s)", schemaConfiguration.getProviderUserIdColumnName(), providerId));
+		return query.arrange(results);
+	}
 
-			parameters.addValue(String.format("providerId_%s", providerId), providerId);
-			parameters.addValue(String.format("providerUserIds_%s", providerId), entry.getValue());
+	public CompletableFuture<MultiValueMap<String, Connection<?>>> findConnectionsToUsersAsync(final MultiValueMap<String, String> providerUsers)
+	{
+		return findConnectionsToUsersAsync(providerUsers, executor);
+	}
 
-			if (iterator.hasNext())
-				criteria.append(" OR ");
-		}
+	public CompletableFuture<MultiValueMap<String, Connection<?>>> findConnectionsToUsersAsync(final MultiValueMap<String, String> providerUsers, final Executor executor)
+	{
+		Argument.notNull(providerUsers, "providerUsers");
+		Argument.notNull(executor, "executor");
+
+		if (providerUsers.isEmpty())
+			throw new IllegalArgumentException("providerUsers");
 
-		final var query =
-			String.format(
-				"%s WHERE %s = :userId AND %s ORDER BY %s, %s",
-				selectAll(),
-				schemaConfiguration.getUserIdColumnName(),
-				criteria.toString(),
-				schemaConfiguration.getProviderIdColumnName(),
-				schemaConfiguration.getRankColumnName());
+		// Each chunk is queried and mapped (including token decryption) on its own executor thread. The chunks
+		// run outside of any transaction bound to the calling thread.
 
-		final var queryTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
-		final var results = queryTemplate.query(query, parameters, mapper);
-		final var connectionsForUsers = new LinkedMultiValueMap<String, Connection<?>>();
+		final var query = new ConnectionsToUsersQuery(statements, userId, providerUsers, true);
+		final var futures = new ArrayList<CompletableFuture<List<Connection<?>>>>();
 
-		for (final var connection : results)
+		for (final var chunk : query.getChunks())
 		{
-			final var providerId = connection.getKey().getProviderId();
-			final var providerUserId = connection.getKey().getProviderUserId();
-			final var userIds = providerUsers.get(providerId);
-			final var connectionIndex = userIds.indexOf(providerUserId);
-
-			var connections = connectionsForUsers.get(providerId);
+			futures.add(
+				CompletableFuture.supplyAsync(
+					() -> Instrumentation.query(
+						metrics,
+						"findConnectionsToUsersAsync",
+						() -> readNamed(template -> template.query(chunk.getQuery(), chunk.getParameters(), mapper.getListExtractor()))),
+					executor));
+		}
 
-			if (connections == null)
+		return CompletableFuture
+			.allOf(futures.toArray(new CompletableFuture<?>[0]))
+			.thenApply(ignored ->
 			{
-				connections = new ArrayList<>(userIds.size());
+				final var results = new ArrayList<Connection<?>>();
 
-				for (var i = 0; i < userIds.size(); i++)
-					connections.add(null);
-
-				connectionsForUsers.put(providerId, connections);
-			}
-
-			connections.set(connectionIndex, connection);
-		}
+				for (final var future : futures)
+					results.addAll(future.join());
 
-		return connectionsForUsers;
+				return query.arrange(results);
+			});
 	}
 
 	@Override
@@ -179,22 +245,12 @@ public final class JdbcConnectionRepository
 	{
 		Argument.notNull(connectionKey, "connectionKey");
 
-		try
-		{
-			final var query =
-				String.format(
-					"%s WHERE %s = ? AND %s = ? AND %s = ?",
-					selectAll(),
-					schemaConfiguration.getUserIdColumnName(),
-					schemaConfiguration.getProviderIdColumnName(),
-					schemaConfiguration.getProviderUserIdColumnName());
-
-			return jdbcTemplate.queryForObject(query, mapper, userId, connectionKey.getProviderId(), connectionKey.getProviderUserId());
-		}
-		catch (final EmptyResultDataAccessException e)
-		{
-			throw new NoSuchConnectionException(connectionKey);
-		}
+		if (coalescer == null || !router.canShareRead(writeTracker))
+			return queryConnection(connectionKey);
+
+		final var key = Arrays.asList("getConnection", userId, connectionKey.getProviderId(), connectionKey.getProviderUserId());
+
+		return coalescer.execute(key, () -> queryConnection(connectionKey));
 	}
 
 	@Override
@@ -240,57 +296,62 @@ public final class JdbcConnectionRepository
 	{
 		Argument.notNull(connection, "connection");
 
-		final var selectQuery =
-			String.format(
-				"SELECT COALESCE(MAX(%s) + 1, 1) AS %s FROM %s WHERE %s = ? AND %s = ?",
-				schemaConfiguration.getRankColumnName(),
-				schemaConfiguration.getRankColumnName(),
-				schemaConfiguration.getTableName(),
-				schemaConfiguration.getUserIdColumnName(),
-				schemaConfiguration.getProviderIdColumnName());
-
 		final var data = connection.createData();
-		final var rank = jdbcTemplate.queryForObject(selectQuery, new Object[] { userId, data.getProviderId() }, Integer.class);
-
-		final var insertQuery =
-			String.format(
-				"INSERT INTO %s (%s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
-				schemaConfiguration.getTableName(),
-				schemaConfiguration.getUserIdColumnName(),
-				schemaConfiguration.getProviderIdColumnName(),
-				schemaConfiguration.getProviderUserIdColumnName(),
-				schemaConfiguration.getRankColumnName(),
-				schemaConfiguration.getDisplayNameColumnName(),
-				schemaConfiguration.getProfileUrlColumnName(),
-				schemaConfiguration.getImageUrlColumnName(),
-				schemaConfiguration.getAccessTokenColumnName(),
-				schemaConfiguration.getSecretColumnName(),
-				schemaConfiguration.getRefreshTokenColumnName(),
-				schemaConfiguration.getExpireTimeColumnName());
 
 		final var insertQueryParameters = new Object[]
 		{
 			userId,
 			data.getProviderId(),
 			data.getProviderUserId(),
-			rank,
 			data.getDisplayName(),
 			data.getProfileUrl(),
 			data.getImageUrl(),
 			encrypt(data.getAccessToken()),
 			encrypt(data.getSecret()),
 			encrypt(data.getRefreshToken()),
-			data.getExpireTime()
+			data.getExpireTime(),
+			userId,
+			data.getProviderId()
 		};
 
-		try
-		{
-			jdbcTemplate.update(insertQuery, insertQueryParameters);
-		}
-		catch (final DuplicateKeyException e)
+		writeTracker.recordWrite();
+
+		// The unique (userId, providerId, rank) index also rejects a concurrent add of a different connection
+		// that computed the same next rank. Only an existing key makes this a duplicate connection; a rank
+		// collision is undone and the insert retried, which computes the rank again.
+
+		for (var attempt = 1; ; attempt++)
 		{
-			throw new DuplicateConnectionException(connection.getKey());
+			try
+			{
+				savepoints.execute(() -> Instrumentation.query(metrics, "addConnection", () -> router.getPrimary().update(statements.getInsertConnection(), insertQueryParameters)));
+
+				break;
+			}
+			catch (final DuplicateKeyException e)
+			{
+				if (connectionExists(connection.getKey()))
+				{
+					metrics.incrementDuplicateConnections();
+
+					throw new DuplicateConnectionException(connection.getKey());
+				}
+
+				if (attempt == MAX_RANK_ATTEMPTS)
+					throw e;
+			}
+			catch (final PessimisticLockingFailureException e)
+			{
+				// On MySQL/InnoDB, the rank subquery takes next-key locks, so concurrent adds for the same user
+				// and provider can deadlock instead of colliding on the rank.
+
+				if (!savepoints.canRetryLockFailure() || attempt == MAX_RANK_ATTEMPTS)
+					throw e;
+			}
 		}
+
+		if (userIdCache != null)
+			userIdCache.invalidate(connection.getKey());
 	}
 
 	@Override
@@ -301,21 +362,6 @@ public final class JdbcConnectionRepository
 
 		final var data = connection.createData();
 
-		final var query =
-			String.format(
-				"UPDATE %s SET %s = ?, %s = ?, %s = ?, %s = ?, %s = ?, %s = ?, %s = ? WHERE %s = ? AND %s = ? AND %s = ?",
-				schemaConfiguration.getTableName(),
-				schemaConfiguration.getDisplayNameColumnName(),
-				schemaConfiguration.getProfileUrlColumnName(),
-				schemaConfiguration.getImageUrlColumnName(),
-				schemaConfiguration.getAccessTokenColumnName(),
-				schemaConfiguration.getSecretColumnName(),
-				schemaConfiguration.getRefreshTokenColumnName(),
-				schemaConfiguration.getExpireTimeColumnName(),
-				schemaConfiguration.getUserIdColumnName(),
-				schemaConfiguration.getProviderIdColumnName(),
-				schemaConfiguration.getProviderUserIdColumnName());
-
 		final var queryParameters = new Object[]
 		{
 			data.getDisplayName(),
@@ -330,7 +376,9 @@ public final class JdbcConnectionRepository
 			data.getProviderUserId()
 		};
 
-		jdbcTemplate.update(query, queryParameters);
+		writeTracker.recordWrite();
+
+		Instrumentation.update(metrics, "updateConnection", () -> router.getPrimary().update(statements.getUpdateConnection(), queryParameters));
 	}
 
 	@Override
@@ -339,20 +387,18 @@ public final class JdbcConnectionRepository
 	{
 		Argument.notNull(providerId, "providerId");
 
-		final var query =
-			String.format(
-				"DELETE FROM %s WHERE %s = ? AND %s = ?",
-				schemaConfiguration.getTableName(),
-				schemaConfiguration.getUserIdColumnName(),
-				schemaConfiguration.getProviderIdColumnName());
-
 		final var queryParameters = new Object[]
 		{
 			userId,
 			providerId
 		};
 
-		jdbcTemplate.update(query, queryParameters);
+		writeTracker.recordWrite();
+
+		Instrumentation.update(metrics, "removeConnections", () -> router.getPrimary().update(statements.getRemoveConnections(), queryParameters));
+
+		if (userIdCache != null)
+			userIdCache.invalidate(userId, providerId);
 	}
 
 	@Override
@@ -361,14 +407,6 @@ public final class JdbcConnectionRepository
 	{
 		Argument.notNull(connectionKey, "connectionKey");
 
-		final var query =
-			String.format(
-				"DELETE FROM %s WHERE %s = ? AND %s = ? AND %s = ?",
-				schemaConfiguration.getTableName(),
-				schemaConfiguration.getUserIdColumnName(),
-				schemaConfiguration.getProviderIdColumnName(),
-				schemaConfiguration.getProviderUserIdColumnName());
-
 		final var queryParameters = new Object[]
 		{
 			userId,
@@ -376,95 +414,150 @@ public final class JdbcConnectionRepository
 			connectionKey.getProviderUserId()
 		};
 
-		jdbcTemplate.update(query, queryParameters);
+		writeTracker.recordWrite();
+
+		Instrumentation.update(metrics, "removeConnection", () -> router.getPrimary().update(statements.getRemoveConnection(), queryParameters));
+
+		if (userIdCache != null)
+			userIdCache.invalidate(connectionKey);
 	}
 
-	private String decrypt(final String ciphertext)
+	private boolean connectionExists(final ConnectionKey connectionKey)
 	{
-		if (ciphertext == null)
-			return null;
+		final ResultSetExtractor<Boolean> exists = ResultSet::next;
 
-		return textEncryptor.decrypt(ciphertext);
+		return router.getPrimary().query(statements.getGetConnection(), exists, userId, connectionKey.getProviderId(), connectionKey.getProviderUserId());
 	}
 
 	private String encrypt(final String plaintext)
 	{
-		if (plaintext == null)
-			return null;
+		return Instrumentation.encrypt(metrics, textEncryptor, plaintext);
+	}
 
-		return textEncryptor.encrypt(plaintext);
+	private Object[] getPageParameters(final String providerId, final ConnectionCursor after)
+	{
+		if (providerId == null)
+		{
+			if (after == null)
+			{
+				return new Object[]
+				{
+					userId
+				};
+			}
+
+			return new Object[]
+			{
+				userId,
+				after.getProviderId(),
+				after.getProviderId(),
+				after.getRank()
+			};
+		}
+
+		if (after == null)
+		{
+			return new Object[]
+			{
+				userId,
+				providerId
+			};
+		}
+
+		// A cursor only resumes the listing it came from.
+
+		if (!after.getProviderId().equals(providerId))
+			throw new IllegalArgumentException("after");
+
+		return new Object[]
+		{
+			userId,
+			providerId,
+			after.getRank()
+		};
 	}
 
 	private Connection<?> findPrimaryConnection(final String providerId)
 	{
-		final var query =
-			String.format(
-				"%s WHERE %s = ? AND %s = ? ORDER BY %s",
-				selectAll(),
-				schemaConfiguration.getUserIdColumnName(),
-				schemaConfiguration.getProviderIdColumnName(),
-				schemaConfiguration.getRankColumnName());
+		return Instrumentation.query(
+			metrics,
+			"findPrimaryConnection",
+			() -> read(template -> template.query(statements.getFindPrimaryConnection(), mapper.getFirstRowExtractor(), userId, providerId)));
+	}
 
-		final var results = jdbcTemplate.query(query, mapper, userId, providerId);
+	private Connection<?> queryConnection(final ConnectionKey connectionKey)
+	{
+		try
+		{
+			return Instrumentation.query(
+				metrics,
+				"getConnection",
+				() -> read(template -> template.queryForObject(statements.getGetConnection(), mapper, userId, connectionKey.getProviderId(), connectionKey.getProviderUserId())));
+		}
+		catch (final EmptyResultDataAccessException e)
+		{
+			metrics.incrementMissingConnections();
 
-		if (results.isEmpty())
-			return null;
+			throw new NoSuchConnectionException(connectionKey);
+		}
+	}
 
-		return results.get(0);
+	private List<Connection<?>> queryConnections(final String providerId)
+	{
+		return Instrumentation.query(metrics, "findConnections", () -> read(template -> template.query(statements.getFindConnections(), mapper.getListExtractor(), userId, providerId)));
 	}
 
-	private <T> String getProviderId(final Class<T> apiType)
+	private <T> ConnectionPage<T> queryPage(final String query, final ConnectionPageExtractor<T> extractor, final Object[] parameters, final int maxRows)
 	{
-		return connectionFactoryLocator.getConnectionFactory(apiType).getProviderId();
+		// The GENERIC dialect can't limit the query itself, so the statement caps the rows instead.
+
+		return read(template -> template.query(connection -> prepareStatement(connection, query, parameters, maxRows), extractor));
+	}
+
+	private <T> T read(final Function<JdbcTemplate, T> query)
+	{
+		return router.read(writeTracker, query);
 	}
 
-	private String selectAll()
+	private <T> T readNamed(final Function<NamedParameterJdbcTemplate, T> query)
 	{
-		return String.format(
-			"SELECT %s, %s, %s, %s, %s, %s, %s, %s, %s, %s FROM %s",
-			schemaConfiguration.getUserIdColumnName(),
-			schemaConfiguration.getProviderIdColumnName(),
-			schemaConfiguration.getProviderUserIdColumnName(),
-			schemaConfiguration.getDisplayNameColumnName(),
-			schemaConfiguration.getProfileUrlColumnName(),
-			schemaConfiguration.getImageUrlColumnName(),
-			schemaConfiguration.getAccessTokenColumnName(),
-			schemaConfiguration.getSecretColumnName(),
-			schemaConfiguration.getRefreshTokenColumnName(),
-			schemaConfiguration.getExpireTimeColumnName(),
-			schemaConfiguration.getTableName());
+		return router.readNamed(writeTracker, query);
 	}
 
-	private final class ConnectionRowMapper
-		implements RowMapper<Connection<?>>
+	private static PreparedStatement prepareStatement(final java.sql.Connection connection, final String query, final Object[] parameters, final int maxRows)
+		throws SQLException
 	{
-		@Override
-		public Connection<?> mapRow(final ResultSet results, final int index)
-			throws SQLException
+		final var statement = connection.prepareStatement(query);
+
+		try
 		{
-			final var connectionData =
-				new ConnectionData(
-					results.getString(schemaConfiguration.getProviderIdColumnName()),
-					results.getString(schemaConfiguration.getProviderUserIdColumnName()),
-					results.getString(schemaConfiguration.getDisplayNameColumnName()),
-					results.getString(schemaConfiguration.getProfileUrlColumnName()),
-					results.getString(schemaConfiguration.getImageUrlColumnName()),
-					decrypt(results.getString(schemaConfiguration.getAccessTokenColumnName())),
-					decrypt(results.getString(schemaConfiguration.getSecretColumnName())),
-					decrypt(results.getString(schemaConfiguration.getRefreshTokenColumnName())),
-					nullIfZero(results.getLong(schemaConfiguration.getExpireTimeColumnName())));
-
-			final var connectionFactory = connectionFactoryLocator.getConnectionFactory(connectionData.getProviderId());
-
-			return connectionFactory.createConnection(connectionData);
-		}
+			statement.setMaxRows(maxRows);
 
-		private Long nullIfZero(final long value)
+			for (var index = 0; index < parameters.length; index++)
+				statement.setObject(index + 1, parameters[index]);
+		}
+		catch (final SQLException e)
 		{
-			if (value == 0)
-				return null;
+			JdbcUtils.closeStatement(statement);
 
-			return value;
+			throw e;
 		}
+
+		return statement;
+	}
+
+	private static ConnectionSummary mapSummary(final ResultSet results, final int index)
+		throws SQLException
+	{
+		return new ConnectionSummary(
+			results.getString(StatementCatalog.SUMMARY_PROVIDER_ID_COLUMN),
+			results.getString(StatementCatalog.SUMMARY_PROVIDER_USER_ID_COLUMN),
+			results.getString(StatementCatalog.SUMMARY_DISPLAY_NAME_COLUMN),
+			results.getString(StatementCatalog.SUMMARY_IMAGE_URL_COLUMN));
+	}
+
+	private <T> String getProviderId(final Class<T> apiType)
+	{
+		return connectionFactoryLocator.getConnectionFactory(apiType).getProviderId();
 	}
 }
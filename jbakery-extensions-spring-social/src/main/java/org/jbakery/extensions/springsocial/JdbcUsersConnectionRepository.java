@@ -1,5 +1,8 @@
 package org.jbakery.extensions.springsocial;
 
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
@@ -7,28 +10,44 @@ import java.util.List;
 import java.util.Map;
 import static java.util.Map.entry;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
 import javax.sql.DataSource;
 import org.jbakery.arguments.Argument;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
-import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.security.crypto.encrypt.TextEncryptor;
 import org.springframework.social.connect.Connection;
 import org.springframework.social.connect.ConnectionFactoryLocator;
-import org.springframework.social.connect.ConnectionRepository;
+import org.springframework.social.connect.ConnectionKey;
 import org.springframework.social.connect.ConnectionSignUp;
 import org.springframework.social.connect.UsersConnectionRepository;
+import org.springframework.transaction.annotation.Transactional;
 
 public final class JdbcUsersConnectionRepository
 	implements UsersConnectionRepository
 {
 	private final ConnectionFactoryLocator connectionFactoryLocator;
 	private final DataSource dataSource;
+	private final JdbcTemplate jdbcTemplate;
 	private final SchemaConfiguration schemaConfiguration;
 	private final TextEncryptor textEncryptor;
-
-	private ConnectionSignUp connectionSignUp;
-	private JdbcTemplate jdbcTemplate;
+	private final WriteTracker writeTracker = new WriteTracker();
+
+	private int batchSize = 100;
+	private RequestCoalescer coalescer;
+	private volatile ConnectionSignUp connectionSignUp;
+	private volatile RepositoryContext context;
+	private DatabaseDialect dialect;
+	private Executor executor = RepositoryExecutors.getQueries();
+	private boolean lazyTokenDecryption;
+	private RepositoryMetrics metrics = RepositoryMetrics.NONE;
+	private Duration readYourWritesWindow = Duration.ofSeconds(1);
+	private List<DataSource> replicaDataSources = List.of();
+	private ReplicaSelectionStrategy replicaSelectionStrategy = ReplicaSelectionStrategy.ROUND_ROBIN;
+	private int repositoryCacheSize;
+	private Duration repositoryCacheTimeToLive;
+	private UserIdCache userIdCache;
 
 	public JdbcUsersConnectionRepository(ConnectionFactoryLocator connectionFactoryLocator, DataSource dataSource, SchemaConfiguration schemaConfiguration, TextEncryptor textEncryptor)
 	{
@@ -36,6 +55,7 @@ public final class JdbcUsersConnectionRepository
 		this.dataSource = Argument.notNull(dataSource, "dataSource");
 		this.schemaConfiguration = Argument.notNull(schemaConfiguration, "schemaConfiguration");
 		this.textEncryptor = Argument.notNull(textEncryptor, "textEncryptor");
+		this.jdbcTemplate = new JdbcTemplate(dataSource);
 	}
 
 	@Override
@@ -43,22 +63,17 @@ public final class JdbcUsersConnectionRepository
 	{
 		Argument.notNull(connection, "connection");
 
-		final var query =
-			String.format(
-				"SELECT %s FROM %s WHERE %s = ? AND %s = ?",
-				schemaConfiguration.getUserIdColumnName(),
-				schemaConfiguration.getTableName(),
-				schemaConfiguration.getProviderIdColumnName(),
-				schemaConfiguration.getProviderUserIdColumnName());
+		final var context = getContext();
+		final var userIdCache = context.getUserIdCache();
+
+		// Query the database (or the cache, if configured) for matching user(s).
 
-		// Query the database for matching user(s).
+		final var connectionKey = connection.getKey();
 
 		final var userIds =
-			getJdbcTemplate().queryForList(
-				query,
-				String.class,
-				connection.getKey().getProviderId(),
-				connection.getKey().getProviderUserId());
+			userIdCache == null
+				? queryUserIdsWithConnection(context, connectionKey)
+				: userIdCache.get(connectionKey, () -> queryUserIdsWithConnection(context, connectionKey));
 
 		// If we found matching user(s), return their IDs.
 
@@ -67,6 +82,8 @@ public final class JdbcUsersConnectionRepository
 
 		// If there is no sign-up mechanism, return an empty set of user IDs.
 
+		final var connectionSignUp = this.connectionSignUp;
+
 		if (connectionSignUp == null)
 			return emptyUserIdList();
 
@@ -79,8 +96,12 @@ public final class JdbcUsersConnectionRepository
 		if (userId == null)
 			return emptyUserIdList();
 
-		// Register this connection for the new user.
+		context.getMetrics().incrementSignUps();
+
+		// Register this connection for the new user. The write goes through the new user's repository, so
+		// it is also recorded here, which keeps this repository's own reads from lagging replicas for a while.
 
+		writeTracker.recordWrite();
 		createConnectionRepository(userId).addConnection(connection);
 
 		// Return the new user ID.
@@ -94,39 +115,177 @@ public final class JdbcUsersConnectionRepository
 		Argument.notNull(providerId, "providerId");
 		Argument.notNull(providerUserIds, "providerUserIds");
 
-		final var query =
-			String.format(
-				"SELECT %s FROM %s WHERE %s = :providerId AND %s IN (:providerUserIds)",
-				schemaConfiguration.getUserIdColumnName(),
-				schemaConfiguration.getTableName(),
-				schemaConfiguration.getProviderIdColumnName(),
-				schemaConfiguration.getProviderUserIdColumnName());
+		final var context = getContext();
+		final var coalescer = context.getCoalescer();
 
-		final var queryParameters =
-			new MapSqlParameterSource(
-				Map.ofEntries(
-					entry("providerId", providerId),
-					entry("providerUserIds", providerUserIds)));
+		if (coalescer == null || !context.getRouter().canShareRead(writeTracker))
+			return queryUserIdsConnectedTo(context, providerId, providerUserIds);
 
-		final var queryTemplate = new NamedParameterJdbcTemplate(getJdbcTemplate());
+		// Concurrent identical reads share one query; each caller gets its own copy of the set.
 
-		return queryTemplate.query(query, queryParameters, results ->
+		final var key = Arrays.asList("findUserIdsConnectedTo", providerId, Set.copyOf(providerUserIds));
+
+		return new HashSet<>(coalescer.execute(key, () -> queryUserIdsConnectedTo(context, providerId, providerUserIds)));
+	}
+
+	@Transactional
+	public List<BatchOutcome> addConnections(final List<UserConnection> connections)
+	{
+		Argument.notNull(connections, "connections");
+
+		final var context = getContext();
+
+		writeTracker.recordWrite();
+
+		final var outcomes = createBatchWriter(context).addConnections(connections);
+
+		if (context.getUserIdCache() != null)
 		{
-			final var userIds = new HashSet<String>();
+			for (final var connection : connections)
+				context.getUserIdCache().invalidate(connection.getConnection().getKey());
+		}
 
-			while (results.next())
-				userIds.add(results.getString(schemaConfiguration.getUserIdColumnName()));
+		return outcomes;
+	}
 
-			return userIds;
-		});
+	@Transactional
+	public List<BatchOutcome> updateConnections(final List<UserConnection> connections)
+	{
+		Argument.notNull(connections, "connections");
+
+		final var context = getContext();
+
+		writeTracker.recordWrite();
+
+		return createBatchWriter(context).updateConnections(connections);
+	}
+
+	@Transactional
+	public List<BatchOutcome> removeConnections(final List<UserConnectionKey> connectionKeys)
+	{
+		Argument.notNull(connectionKeys, "connectionKeys");
+
+		final var context = getContext();
+
+		writeTracker.recordWrite();
+
+		final var outcomes = createBatchWriter(context).removeConnections(connectionKeys);
+
+		if (context.getUserIdCache() != null)
+		{
+			for (final var connectionKey : connectionKeys)
+				context.getUserIdCache().invalidate(connectionKey.getConnectionKey());
+		}
+
+		return outcomes;
+	}
+
+	public long getCoalescedReadCount()
+	{
+		final var coalescer = getContext().getCoalescer();
+
+		if (coalescer == null)
+			return 0;
+
+		return coalescer.getCoalescedCount();
+	}
+
+	public long getExecutedReadCount()
+	{
+		final var coalescer = getContext().getCoalescer();
+
+		if (coalescer == null)
+			return 0;
+
+		return coalescer.getExecutedCount();
+	}
+
+	public Stream<UserConnection> streamConnections(final int fetchSize)
+	{
+		if (fetchSize < 1)
+			throw new IllegalArgumentException("fetchSize");
+
+		return createScanner(getContext()).streamConnections(fetchSize);
+	}
+
+	public Stream<UserConnection> streamConnectionsByPage(final int pageSize)
+	{
+		if (pageSize < 1)
+			throw new IllegalArgumentException("pageSize");
+
+		return createScanner(getContext()).streamConnectionsByPage(pageSize);
+	}
+
+	public Stream<UserConnection> streamExpiringConnections(final long expiresBefore, final int pageSize)
+	{
+		if (pageSize < 1)
+			throw new IllegalArgumentException("pageSize");
+
+		return createScanner(getContext()).streamExpiringConnections(expiresBefore, pageSize);
+	}
+
+	public Duration warmUp()
+	{
+		final var start = System.nanoTime();
+
+		// Building the context detects the dialect and renders the statement catalog, which the first
+		// request would otherwise pay for.
+
+		final var context = getContext();
+
+		// A misnamed column would otherwise only surface when the first query that reads it fails.
+
+		final var schemaManager = new SchemaManager(dataSource, schemaConfiguration, context.getStatements().getDialect());
+		final var missingColumns = schemaManager.findMissingColumns();
+
+		if (!missingColumns.isEmpty())
+			throw new IllegalStateException("Missing columns: " + String.join(", ", missingColumns));
+
+		schemaManager.validate();
+
+		// Preparing each statement once has the driver parse it, and lets statement caches keep it, before
+		// any request needs it. Pools cache statements per connection, so this warms the connection it gets.
+
+		final var statements = context.getStatements().getStaticStatements();
+
+		for (final var template : context.getRouter().getTemplates())
+			template.execute((java.sql.Connection connection) -> prepareStatements(connection, statements));
+
+		return Duration.ofNanos(System.nanoTime() - start);
 	}
 
 	@Override
-	public ConnectionRepository createConnectionRepository(final String userId)
+	public JdbcConnectionRepository createConnectionRepository(final String userId)
 	{
 		Argument.notNull(userId, "userId");
 
-		return new JdbcConnectionRepository(connectionFactoryLocator, getJdbcTemplate(), schemaConfiguration, textEncryptor, userId);
+		final var context = getContext();
+		final var repositories = context.getRepositories();
+
+		if (repositories == null)
+			return new JdbcConnectionRepository(context, userId);
+
+		// Repositories are thread-safe, so one instance per userId can serve every request for that user.
+
+		final var generation = repositories.generation(userId);
+		final var cachedRepository = repositories.get(userId);
+
+		if (cachedRepository != null)
+			return cachedRepository;
+
+		final var repository = new JdbcConnectionRepository(context, userId);
+
+		repositories.put(userId, repository, generation);
+
+		return repository;
+	}
+
+	public synchronized void setBatchSize(final int batchSize)
+	{
+		if (batchSize < 1)
+			throw new IllegalArgumentException("batchSize");
+
+		this.batchSize = batchSize;
 	}
 
 	@Override
@@ -135,12 +294,99 @@ public final class JdbcUsersConnectionRepository
 		this.connectionSignUp = Argument.notNull(connectionSignUp, "connectionSignUp");
 	}
 
-	private JdbcTemplate getJdbcTemplate()
+	public synchronized void setConnectionRepositoryCache(final int maximumSize, final Duration timeToLive)
 	{
-		// If the variable is already initialized, return it.
+		Argument.notNull(timeToLive, "timeToLive");
+
+		if (maximumSize < 1)
+			throw new IllegalArgumentException("maximumSize");
+
+		if (timeToLive.isNegative() || timeToLive.isZero())
+			throw new IllegalArgumentException("timeToLive");
 
-		if (jdbcTemplate != null)
-			return jdbcTemplate;
+		this.repositoryCacheSize = maximumSize;
+		this.repositoryCacheTimeToLive = timeToLive;
+		context = null;
+	}
+
+	public synchronized void setExecutor(final Executor executor)
+	{
+		this.executor = Argument.notNull(executor, "executor");
+		context = null;
+	}
+
+	public synchronized void setUserIdCache(final UserIdCache userIdCache)
+	{
+		this.userIdCache = Argument.notNull(userIdCache, "userIdCache");
+		context = null;
+	}
+
+	public synchronized void setMetrics(final RepositoryMetrics metrics)
+	{
+		this.metrics = Argument.notNull(metrics, "metrics");
+		context = null;
+	}
+
+	public synchronized void setReadCoalescing(final boolean readCoalescing)
+	{
+		coalescer = readCoalescing ? new RequestCoalescer() : null;
+		context = null;
+	}
+
+	public synchronized void setLazyTokenDecryption(final boolean lazyTokenDecryption)
+	{
+		this.lazyTokenDecryption = lazyTokenDecryption;
+		context = null;
+	}
+
+	public synchronized void setReadReplicas(final List<DataSource> replicaDataSources)
+	{
+		this.replicaDataSources = List.copyOf(Argument.notNull(replicaDataSources, "replicaDataSources"));
+		context = null;
+	}
+
+	public synchronized void setReadYourWritesWindow(final Duration readYourWritesWindow)
+	{
+		Argument.notNull(readYourWritesWindow, "readYourWritesWindow");
+
+		if (readYourWritesWindow.isNegative())
+			throw new IllegalArgumentException("readYourWritesWindow");
+
+		this.readYourWritesWindow = readYourWritesWindow;
+		context = null;
+	}
+
+	public synchronized void setReplicaSelectionStrategy(final ReplicaSelectionStrategy replicaSelectionStrategy)
+	{
+		this.replicaSelectionStrategy = Argument.notNull(replicaSelectionStrategy, "replicaSelectionStrategy");
+		context = null;
+	}
+
+	public synchronized void setDatabaseDialect(final DatabaseDialect dialect)
+	{
+		this.dialect = Argument.notNull(dialect, "dialect");
+		context = null;
+	}
+
+	private synchronized ConnectionBatchWriter createBatchWriter(final RepositoryContext context)
+	{
+		return new ConnectionBatchWriter(context.getRouter().getPrimary(), context.getSavepoints(), context.getStatements(), context.getTextEncryptor(), context.getMetrics(), batchSize);
+	}
+
+	private ConnectionScanner createScanner(final RepositoryContext context)
+	{
+		return new ConnectionScanner(context.getRouter().getPrimary(), context.getStatements(), context.getMapper());
+	}
+
+	private RepositoryContext getContext()
+	{
+		// If the variable is already initialized, return it. It is volatile, so a context built by
+		// another thread is always seen fully constructed.
+
+		final var context = this.context;
+
+		if (context != null)
+			return context;
 
 		// The variable isn't initialized; enter synchronization block.
 
@@ -148,15 +394,87 @@ public final class JdbcUsersConnectionRepository
 		{
 			// If another thread initialized the variable while we were waiting, return it.
 
-			if (jdbcTemplate != null)
-				return jdbcTemplate;
+			if (this.context != null)
+				return this.context;
+
+			// Detect the dialect (unless one was configured) and build the shared collaborators. A setter
+			// discards the context, so the next call rebuilds it (and a fresh repository cache) from the new
+			// configuration.
+
+			if (dialect == null)
+				dialect = DatabaseDialect.detect(dataSource);
+
+			final var replicas = new ArrayList<JdbcTemplate>();
+
+			for (final var replicaDataSource : replicaDataSources)
+				replicas.add(new JdbcTemplate(replicaDataSource));
+
+			final var repositories =
+				repositoryCacheSize == 0
+					? null
+					: new BoundedCache<String, JdbcConnectionRepository>(repositoryCacheSize, repositoryCacheTimeToLive);
 
-			// Initialize the variable.
+			this.context =
+				new RepositoryContext(
+					connectionFactoryLocator,
+					new ReadRouter(jdbcTemplate, replicas, replicaSelectionStrategy, readYourWritesWindow),
+					new StatementCatalog(schemaConfiguration, dialect),
+					textEncryptor,
+					lazyTokenDecryption,
+					executor,
+					userIdCache,
+					coalescer,
+					metrics,
+					repositories);
 
-			jdbcTemplate = new JdbcTemplate(dataSource);
+			return this.context;
 		}
+	}
+
+	private Set<String> queryUserIdsConnectedTo(final RepositoryContext context, final String providerId, final Set<String> providerUserIds)
+	{
+		final var queryParameters =
+			new MapSqlParameterSource(
+				Map.ofEntries(
+					entry("providerId", providerId),
+					entry("providerUserIds", providerUserIds)));
+
+		return Instrumentation.query(context.getMetrics(), "findUserIdsConnectedTo", () ->
+			context.getRouter().readNamed(writeTracker, template ->
+				template.query(context.getStatements().getFindUserIdsConnectedTo(), queryParameters, results ->
+				{
+					final var userIds = new HashSet<String>();
+
+					while (results.next())
+						userIds.add(results.getString(1));
+
+					return userIds;
+				})));
+	}
+
+	private List<String> queryUserIdsWithConnection(final RepositoryContext context, final ConnectionKey connectionKey)
+	{
+		// This is the sign-up lookup, so it always reads the primary. A lagging replica could miss a user that
+		// just signed up (possibly on another node), and the empty result would sign the same account up twice
+		// and, with a user ID cache, be cached as a negative entry.
+
+		return Instrumentation.query(
+			context.getMetrics(),
+			"findUserIdsWithConnection",
+			() -> context.getRouter().getPrimary().queryForList(
+				context.getStatements().getFindUserIdsWithConnection(),
+				String.class,
+				connectionKey.getProviderId(),
+				connectionKey.getProviderUserId()));
+	}
+
+	private static Void prepareStatements(final java.sql.Connection connection, final List<String> statements)
+		throws SQLException
+	{
+		for (final var statement : statements)
+			connection.prepareStatement(statement).close();
 
-		return jdbcTemplate;
+		return null;
 	}
 
 	private static List<String> emptyUserIdList()
@@ -0,0 +1,200 @@
+package org.jbakery.extensions.springsocial;
+
+import org.jbakery.arguments.Argument;
+import org.springframework.security.crypto.encrypt.TextEncryptor;
+import org.springframework.social.connect.Connection;
+import org.springframework.social.connect.ConnectionData;
+import org.springframework.social.connect.ConnectionFactory;
+import org.springframework.social.connect.ConnectionKey;
+import org.springframework.social.connect.UserProfile;
+
+final class LazyConnection<A>
+	implements Connection<A>
+{
+	private static final long serialVersionUID = 1L;
+
+	private final transient ConnectionFactory<A> connectionFactory;
+	private final transient ConnectionData encryptedData;
+	private final ConnectionKey key;
+	private final transient RepositoryMetrics metrics;
+	private final transient TextEncryptor textEncryptor;
+
+	private volatile Connection<A> connection;
+
+	LazyConnection(ConnectionFactory<A> connectionFactory, ConnectionData encryptedData, TextEncryptor textEncryptor, RepositoryMetrics metrics)
+	{
+		this.connectionFactory = Argument.notNull(connectionFactory, "connectionFactory");
+		this.encryptedData = Argument.notNull(encryptedData, "encryptedData");
+		this.textEncryptor = Argument.notNull(textEncryptor, "textEncryptor");
+		this.metrics = Argument.notNull(metrics, "metrics");
+		this.key = new ConnectionKey(encryptedData.getProviderId(), encryptedData.getProviderUserId());
+	}
+
+	@Override
+	public ConnectionKey getKey()
+	{
+		return key;
+	}
+
+	@Override
+	public String getDisplayName()
+	{
+		// Profile fields are served from the row until the connection exists; after that, it may have been synced.
+
+		final var connection = this.connection;
+
+		if (connection == null)
+			return encryptedData.getDisplayName();
+
+		return connection.getDisplayName();
+	}
+
+	@Override
+	public String getProfileUrl()
+	{
+		final var connection = this.connection;
+
+		if (connection == null)
+			return encryptedData.getProfileUrl();
+
+		return connection.getProfileUrl();
+	}
+
+	@Override
+	public String getImageUrl()
+	{
+		final var connection = this.connection;
+
+		if (connection == null)
+			return encryptedData.getImageUrl();
+
+		return connection.getImageUrl();
+	}
+
+	@Override
+	public void sync()
+	{
+		getConnection().sync();
+	}
+
+	@Override
+	public boolean test()
+	{
+		return getConnection().test();
+	}
+
+	@Override
+	public boolean hasExpired()
+	{
+		// Expiry is answered from the row, as OAuth2Connection would, so checking it doesn't decrypt the tokens.
+
+		final var connection = this.connection;
+
+		if (connection == null)
+		{
+			final var expireTime = encryptedData.getExpireTime();
+
+			return expireTime != null && System.currentTimeMillis() >= expireTime;
+		}
+
+		return connection.hasExpired();
+	}
+
+	@Override
+	public void refresh()
+	{
+		getConnection().refresh();
+	}
+
+	@Override
+	public UserProfile fetchUserProfile()
+	{
+		return getConnection().fetchUserProfile();
+	}
+
+	@Override
+	public void updateStatus(final String message)
+	{
+		getConnection().updateStatus(message);
+	}
+
+	@Override
+	public A getApi()
+	{
+		return getConnection().getApi();
+	}
+
+	@Override
+	public ConnectionData createData()
+	{
+		return getConnection().createData();
+	}
+
+	@Override
+	public boolean equals(final Object object)
+	{
+		// Like AbstractConnection, equal by key alone, so comparing never decrypts the tokens. Only other lazy
+		// connections compare equal, because AbstractConnection's equals doesn't accept this class in return.
+
+		if (this == object)
+			return true;
+
+		if (!(object instanceof LazyConnection))
+			return false;
+
+		final var other = (LazyConnection<?>)object;
+
+		return key.equals(other.key);
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return key.hashCode();
+	}
+
+	private Connection<A> getConnection()
+	{
+		// If the variable is already initialized, return it.
+
+		final var connection = this.connection;
+
+		if (connection != null)
+			return connection;
+
+		// The variable isn't initialized; enter synchronization block.
+
+		synchronized (this)
+		{
+			// If another thread initialized the variable while we were waiting, return it.
+
+			if (this.connection != null)
+				return this.connection;
+
+			// Decrypt the tokens and create the actual connection.
+
+			final var connectionData =
+				new ConnectionData(
+					encryptedData.getProviderId(),
+					encryptedData.getProviderUserId(),
+					encryptedData.getDisplayName(),
+					encryptedData.getProfileUrl(),
+					encryptedData.getImageUrl(),
+					Instrumentation.decrypt(metrics, textEncryptor, encryptedData.getAccessToken()),
+					Instrumentation.decrypt(metrics, textEncryptor, encryptedData.getSecret()),
+					Instrumentation.decrypt(metrics, textEncryptor, encryptedData.getRefreshToken()),
+					encryptedData.getExpireTime());
+
+			this.connection = Instrumentation.createConnection(metrics, connectionFactory, connectionData);
+
+			return this.connection;
+		}
+	}
+
+	private Object writeReplace()
+	{
+		// The encryptor and factory aren't serializable; serialize the actual connection instead.
+
+		return getConnection();
+	}
+}
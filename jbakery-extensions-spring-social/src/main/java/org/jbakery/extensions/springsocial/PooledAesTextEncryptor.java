@@ -0,0 +1,151 @@
+package org.jbakery.extensions.springsocial;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import org.jbakery.arguments.Argument;
+import org.springframework.security.crypto.codec.Hex;
+
+// Produces and reads the same hex-encoded "IV followed by ciphertext" format as Spring Security's
+// Encryptors.text (AES/CBC) and Encryptors.delux (AES/GCM), so it can replace them over existing
+// data. The key is derived once, and every thread reuses its own Cipher rather than contending
+// for a single shared one.
+
+public final class PooledAesTextEncryptor
+	implements BulkTextEncryptor
+{
+	private static final int GCM_TAG_LENGTH = 128;
+	private static final int IV_LENGTH = 16;
+	private static final int KEY_ITERATIONS = 1024;
+	private static final int KEY_LENGTH = 256;
+
+	private final ThreadLocal<Cipher> ciphers;
+	private final boolean gcm;
+	private final SecretKey key;
+	private final SecureRandom random = new SecureRandom();
+
+	private PooledAesTextEncryptor(final CharSequence password, final CharSequence salt, final boolean gcm)
+	{
+		Argument.notNull(password, "password");
+		Argument.notNull(salt, "salt");
+
+		this.gcm = gcm;
+		this.key = deriveKey(password, salt);
+
+		final var transformation = gcm ? "AES/GCM/NoPadding" : "AES/CBC/PKCS5Padding";
+
+		this.ciphers = ThreadLocal.withInitial(() -> createCipher(transformation));
+	}
+
+	public static PooledAesTextEncryptor delux(final CharSequence password, final CharSequence salt)
+	{
+		return new PooledAesTextEncryptor(password, salt, true);
+	}
+
+	public static PooledAesTextEncryptor text(final CharSequence password, final CharSequence salt)
+	{
+		return new PooledAesTextEncryptor(password, salt, false);
+	}
+
+	@Override
+	public String encrypt(final String text)
+	{
+		Argument.notNull(text, "text");
+
+		final var iv = new byte[IV_LENGTH];
+
+		random.nextBytes(iv);
+
+		final var cipher = ciphers.get();
+
+		try
+		{
+			cipher.init(Cipher.ENCRYPT_MODE, key, createParameters(iv));
+
+			final var plaintext = text.getBytes(StandardCharsets.UTF_8);
+			final var encrypted = Arrays.copyOf(iv, IV_LENGTH + cipher.getOutputSize(plaintext.length));
+			final var length = cipher.doFinal(plaintext, 0, plaintext.length, encrypted, IV_LENGTH);
+
+			return new String(Hex.encode(Arrays.copyOf(encrypted, IV_LENGTH + length)));
+		}
+		catch (final GeneralSecurityException e)
+		{
+			throw new IllegalStateException("Unable to encrypt text.", e);
+		}
+	}
+
+	@Override
+	public String decrypt(final String encryptedText)
+	{
+		Argument.notNull(encryptedText, "encryptedText");
+
+		final var encrypted = Hex.decode(encryptedText);
+
+		if (encrypted.length < IV_LENGTH)
+			throw new IllegalArgumentException("encryptedText");
+
+		final var cipher = ciphers.get();
+
+		try
+		{
+			cipher.init(Cipher.DECRYPT_MODE, key, createParameters(Arrays.copyOf(encrypted, IV_LENGTH)));
+
+			return new String(cipher.doFinal(encrypted, IV_LENGTH, encrypted.length - IV_LENGTH), StandardCharsets.UTF_8);
+		}
+		catch (final GeneralSecurityException e)
+		{
+			throw new IllegalStateException("Unable to decrypt text.", e);
+		}
+	}
+
+	private AlgorithmParameterSpec createParameters(final byte[] iv)
+	{
+		if (gcm)
+			return new GCMParameterSpec(GCM_TAG_LENGTH, iv);
+
+		return new IvParameterSpec(iv);
+	}
+
+	private static Cipher createCipher(final String transformation)
+	{
+		try
+		{
+			return Cipher.getInstance(transformation);
+		}
+		catch (final GeneralSecurityException e)
+		{
+			throw new IllegalStateException("Unable to create cipher.", e);
+		}
+	}
+
+	private static SecretKey deriveKey(final CharSequence password, final CharSequence salt)
+	{
+		// Matches the key derivation of Spring Security's AesBytesEncryptor.
+
+		final var keySpec = new PBEKeySpec(password.toString().toCharArray(), Hex.decode(salt), KEY_ITERATIONS, KEY_LENGTH);
+
+		try
+		{
+			final var secretKey = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1").generateSecret(keySpec);
+
+			return new SecretKeySpec(secretKey.getEncoded(), "AES");
+		}
+		catch (final GeneralSecurityException e)
+		{
+			throw new IllegalStateException("Unable to derive key.", e);
+		}
+		finally
+		{
+			keySpec.clearPassword();
+		}
+	}
+}
@@ -0,0 +1,283 @@
+package org.jbakery.extensions.springsocial;
+
+import io.r2dbc.spi.R2dbcDataIntegrityViolationException;
+import io.r2dbc.spi.Result;
+import io.r2dbc.spi.Row;
+import io.r2dbc.spi.RowMetadata;
+import io.r2dbc.spi.Statement;
+import org.jbakery.arguments.Argument;
+import org.springframework.security.crypto.encrypt.TextEncryptor;
+import org.springframework.social.connect.Connection;
+import org.springframework.social.connect.ConnectionFactoryLocator;
+import org.springframework.social.connect.ConnectionKey;
+import org.springframework.social.connect.DuplicateConnectionException;
+import org.springframework.social.connect.NoSuchConnectionException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// A non-blocking counterpart of JdbcConnectionRepository. It runs the same statements (rewritten to the
+// driver's bind markers) and maps rows through the same ConnectionRowMapper, so decryption and expiry
+// handling behave identically. Tokens are encrypted and decrypted on the subscribing thread.
+
+public final class R2dbcConnectionRepository
+{
+	private final io.r2dbc.spi.ConnectionFactory connectionFactory;
+	private final String findConnections;
+	private final String findPrimaryConnection;
+	private final String getConnection;
+	private final String insertConnection;
+	private final ConnectionRowMapper mapper;
+	private final String removeConnection;
+	private final String removeConnections;
+	private final TextEncryptor textEncryptor;
+	private final String updateConnection;
+	private final String userId;
+
+	public R2dbcConnectionRepository(
+		ConnectionFactoryLocator connectionFactoryLocator,
+		io.r2dbc.spi.ConnectionFactory connectionFactory,
+		SchemaConfiguration schemaConfiguration,
+		TextEncryptor textEncryptor,
+		String userId)
+	{
+		this(
+			connectionFactoryLocator,
+			connectionFactory,
+			schemaConfiguration,
+			DatabaseDialect.fromProductName(Argument.notNull(connectionFactory, "connectionFactory").getMetadata().getName()),
+			textEncryptor,
+			userId);
+	}
+
+	public R2dbcConnectionRepository(
+		ConnectionFactoryLocator connectionFactoryLocator,
+		io.r2dbc.spi.ConnectionFactory connectionFactory,
+		SchemaConfiguration schemaConfiguration,
+		DatabaseDialect dialect,
+		TextEncryptor textEncryptor,
+		String userId)
+	{
+		Argument.notNull(connectionFactoryLocator, "connectionFactoryLocator");
+		Argument.notNull(schemaConfiguration, "schemaConfiguration");
+		Argument.notNull(dialect, "dialect");
+
+		this.connectionFactory = Argument.notNull(connectionFactory, "connectionFactory");
+		this.textEncryptor = Argument.notNull(textEncryptor, "textEncryptor");
+		this.userId = Argument.notNull(userId, "userId");
+		this.mapper = new ConnectionRowMapper(connectionFactoryLocator, textEncryptor, false, RepositoryMetrics.NONE);
+
+		final var statements = new StatementCatalog(schemaConfiguration, dialect);
+
+		findConnections = dialect.bindMarkers(statements.getFindConnections());
+		findPrimaryConnection = dialect.bindMarkers(statements.getFindPrimaryConnection());
+		getConnection = dialect.bindMarkers(statements.getGetConnection());
+		insertConnection = dialect.bindMarkers(statements.getInsertConnection());
+		updateConnection = dialect.bindMarkers(statements.getUpdateConnection());
+		removeConnections = dialect.bindMarkers(statements.getRemoveConnections());
+		removeConnection = dialect.bindMarkers(statements.getRemoveConnection());
+	}
+
+	public Flux<Connection<?>> findConnections(final String providerId)
+	{
+		Argument.notNull(providerId, "providerId");
+
+		return query(findConnections, userId, providerId);
+	}
+
+	public Mono<Connection<?>> findPrimaryConnection(final String providerId)
+	{
+		Argument.notNull(providerId, "providerId");
+
+		return query(findPrimaryConnection, userId, providerId).next();
+	}
+
+	public Mono<Connection<?>> getConnection(final ConnectionKey connectionKey)
+	{
+		Argument.notNull(connectionKey, "connectionKey");
+
+		return query(getConnection, userId, connectionKey.getProviderId(), connectionKey.getProviderUserId())
+			.next()
+			.switchIfEmpty(Mono.defer(() -> Mono.error(new NoSuchConnectionException(connectionKey))));
+	}
+
+	public Mono<Void> addConnection(final Connection<?> connection)
+	{
+		Argument.notNull(connection, "connection");
+
+		return Mono.defer(() ->
+		{
+			final var data = connection.createData();
+
+			final var parameters =
+				new Object[]
+				{
+					userId,
+					data.getProviderId(),
+					data.getProviderUserId(),
+					data.getDisplayName(),
+					data.getProfileUrl(),
+					data.getImageUrl(),
+					encrypt(data.getAccessToken()),
+					encrypt(data.getSecret()),
+					encrypt(data.getRefreshToken()),
+					new TypedValue(data.getExpireTime(), Long.class),
+					userId,
+					data.getProviderId()
+				};
+
+			return insert(connection.getKey(), parameters, 1);
+		});
+	}
+
+	public Mono<Void> updateConnection(final Connection<?> connection)
+	{
+		Argument.notNull(connection, "connection");
+
+		return Mono
+			.defer(() ->
+			{
+				final var data = connection.createData();
+
+				return update(
+					updateConnection,
+					data.getDisplayName(),
+					data.getProfileUrl(),
+					data.getImageUrl(),
+					encrypt(data.getAccessToken()),
+					encrypt(data.getSecret()),
+					encrypt(data.getRefreshToken()),
+					new TypedValue(data.getExpireTime(), Long.class),
+					userId,
+					data.getProviderId(),
+					data.getProviderUserId());
+			})
+			.then();
+	}
+
+	public Mono<Void> removeConnections(final String providerId)
+	{
+		Argument.notNull(providerId, "providerId");
+
+		return update(removeConnections, userId, providerId).then();
+	}
+
+	public Mono<Void> removeConnection(final ConnectionKey connectionKey)
+	{
+		Argument.notNull(connectionKey, "connectionKey");
+
+		return update(removeConnection, userId, connectionKey.getProviderId(), connectionKey.getProviderUserId()).then();
+	}
+
+	private Mono<Boolean> connectionExists(final ConnectionKey connectionKey)
+	{
+		return Flux
+			.usingWhen(
+				Mono.<io.r2dbc.spi.Connection>from(connectionFactory.create()),
+				connection ->
+					Flux
+						.from(bind(connection.createStatement(getConnection), new Object[] { userId, connectionKey.getProviderId(), connectionKey.getProviderUserId() }).execute())
+						.concatMap(result -> result.map((row, metadata) -> Boolean.TRUE)),
+				io.r2dbc.spi.Connection::close)
+			.hasElements();
+	}
+
+	private String encrypt(final String plaintext)
+	{
+		return Instrumentation.encrypt(RepositoryMetrics.NONE, textEncryptor, plaintext);
+	}
+
+	private Mono<Void> insert(final ConnectionKey connectionKey, final Object[] parameters, final int attempt)
+	{
+		// As in JdbcConnectionRepository, a unique violation is either this connection, added concurrently, or a
+		// concurrent add of another connection that took the same rank; only the latter is retried.
+
+		return update(insertConnection, parameters)
+			.then()
+			.onErrorResume(R2dbcDataIntegrityViolationException.class, e -> connectionExists(connectionKey).flatMap(exists ->
+			{
+				if (exists)
+					return Mono.error(new DuplicateConnectionException(connectionKey));
+
+				if (attempt == JdbcConnectionRepository.MAX_RANK_ATTEMPTS)
+					return Mono.error(e);
+
+				return insert(connectionKey, parameters, attempt + 1);
+			}));
+	}
+
+	private Connection<?> mapRow(final Row row, final RowMetadata metadata)
+	{
+		// R2DBC columns are indexed from zero; the catalog's column positions are JDBC's, from one.
+
+		return mapper.createConnection(
+			row.get(StatementCatalog.PROVIDER_ID_COLUMN - 1, String.class),
+			row.get(StatementCatalog.PROVIDER_USER_ID_COLUMN - 1, String.class),
+			row.get(StatementCatalog.DISPLAY_NAME_COLUMN - 1, String.class),
+			row.get(StatementCatalog.PROFILE_URL_COLUMN - 1, String.class),
+			row.get(StatementCatalog.IMAGE_URL_COLUMN - 1, String.class),
+			row.get(StatementCatalog.ACCESS_TOKEN_COLUMN - 1, String.class),
+			row.get(StatementCatalog.SECRET_COLUMN - 1, String.class),
+			row.get(StatementCatalog.REFRESH_TOKEN_COLUMN - 1, String.class),
+			ConnectionRowMapper.nullIfZero(row.get(StatementCatalog.EXPIRE_TIME_COLUMN - 1, Long.class)));
+	}
+
+	private Flux<Connection<?>> query(final String query, final Object... parameters)
+	{
+		return Flux.usingWhen(
+			Mono.<io.r2dbc.spi.Connection>from(connectionFactory.create()),
+			connection -> Flux.from(bind(connection.createStatement(query), parameters).execute()).concatMap(result -> result.map(this::mapRow)),
+			io.r2dbc.spi.Connection::close);
+	}
+
+	private Mono<Integer> update(final String query, final Object... parameters)
+	{
+		return Flux
+			.usingWhen(
+				Mono.<io.r2dbc.spi.Connection>from(connectionFactory.create()),
+				connection -> Flux.from(bind(connection.createStatement(query), parameters).execute()).concatMap(Result::getRowsUpdated),
+				io.r2dbc.spi.Connection::close)
+			.reduce(0, Integer::sum);
+	}
+
+	private static Statement bind(final Statement statement, final Object[] parameters)
+	{
+		// Drivers need a type to bind a null, so nullable non-text values are wrapped with theirs.
+
+		for (var index = 0; index < parameters.length; index++)
+		{
+			final var parameter = parameters[index];
+
+			if (parameter instanceof TypedValue)
+			{
+				final var typedValue = (TypedValue)parameter;
+
+				if (typedValue.value == null)
+					statement.bindNull(index, typedValue.type);
+				else
+					statement.bind(index, typedValue.value);
+			}
+			else if (parameter == null)
+			{
+				statement.bindNull(index, String.class);
+			}
+			else
+			{
+				statement.bind(index, parameter);
+			}
+		}
+
+		return statement;
+	}
+
+	private static final class TypedValue
+	{
+		private final Class<?> type;
+		private final Object value;
+
+		private TypedValue(final Object value, final Class<?> type)
+		{
+			this.value = value;
+			this.type = type;
+		}
+	}
+}
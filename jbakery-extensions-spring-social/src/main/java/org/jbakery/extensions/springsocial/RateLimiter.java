@@ -0,0 +1,39 @@
+package org.jbakery.extensions.springsocial;
+
+import java.util.concurrent.TimeUnit;
+
+final class RateLimiter
+{
+	private final long intervalNanos;
+
+	private long nextPermitTime = System.nanoTime();
+
+	RateLimiter(double permitsPerSecond)
+	{
+		if (!(permitsPerSecond > 0))
+			throw new IllegalArgumentException("permitsPerSecond");
+
+		this.intervalNanos = Math.max(1L, (long)(TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+	}
+
+	void acquire()
+		throws InterruptedException
+	{
+		// Permits are handed out at a fixed spacing; callers reserve their slot under the lock and wait
+		// for it outside of it, so waiting callers don't hold up the ones behind them.
+
+		final long waitNanos;
+
+		synchronized (this)
+		{
+			final var now = System.nanoTime();
+			final var permitTime = Math.max(now, nextPermitTime);
+
+			nextPermitTime = permitTime + intervalNanos;
+			waitNanos = permitTime - now;
+		}
+
+		if (waitNanos > 0)
+			TimeUnit.NANOSECONDS.sleep(waitNanos);
+	}
+}
@@ -0,0 +1,12 @@
+package org.jbakery.extensions.springsocial;
+
+public interface ReEncryptionCheckpointStore
+{
+	// The key of the last row that was re-encrypted, or null to start from the beginning.
+
+	UserConnectionKey load();
+
+	void save(UserConnectionKey checkpoint);
+
+	void clear();
+}
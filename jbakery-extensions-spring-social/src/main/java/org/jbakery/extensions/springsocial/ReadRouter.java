@@ -0,0 +1,134 @@
+package org.jbakery.extensions.springsocial;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.jbakery.arguments.Argument;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+final class ReadRouter
+{
+	private final AtomicInteger cursor = new AtomicInteger();
+	private final Target primary;
+	private final long readYourWritesNanos;
+	private final List<Target> replicas;
+	private final ReplicaSelectionStrategy strategy;
+
+	ReadRouter(JdbcTemplate primary)
+	{
+		this(primary, List.of(), ReplicaSelectionStrategy.ROUND_ROBIN, Duration.ofSeconds(1));
+	}
+
+	ReadRouter(JdbcTemplate primary, List<JdbcTemplate> replicas, ReplicaSelectionStrategy strategy, Duration readYourWritesWindow)
+	{
+		this.primary = new Target(Argument.notNull(primary, "primary"));
+		this.strategy = Argument.notNull(strategy, "strategy");
+		this.readYourWritesNanos = Argument.notNull(readYourWritesWindow, "readYourWritesWindow").toNanos();
+		this.replicas = new ArrayList<>();
+
+		for (final var replica : Argument.notNull(replicas, "replicas"))
+			this.replicas.add(new Target(replica));
+	}
+
+	JdbcTemplate getPrimary()
+	{
+		return primary.template;
+	}
+
+	List<JdbcTemplate> getTemplates()
+	{
+		final var templates = new ArrayList<JdbcTemplate>(replicas.size() + 1);
+
+		templates.add(primary.template);
+
+		for (final var replica : replicas)
+			templates.add(replica.template);
+
+		return templates;
+	}
+
+	boolean canShareRead(final WriteTracker writeTracker)
+	{
+		// A read started inside a transaction may return rows that are never committed, and a read started
+		// before this repository's latest write may not include it, so neither can be shared with other callers.
+
+		return !TransactionSynchronizationManager.isActualTransactionActive() && !isReadingOwnWrites(writeTracker);
+	}
+
+	boolean isReadingOwnWrites(final WriteTracker writeTracker)
+	{
+		return writeTracker.hasWrittenWithin(readYourWritesNanos);
+	}
+
+	<T> T read(final WriteTracker writeTracker, final Function<JdbcTemplate, T> query)
+	{
+		return route(writeTracker, target -> query.apply(target.template));
+	}
+
+	<T> T readNamed(final WriteTracker writeTracker, final Function<NamedParameterJdbcTemplate, T> query)
+	{
+		return route(writeTracker, target -> query.apply(target.namedTemplate));
+	}
+
+	private <T> T route(final WriteTracker writeTracker, final Function<Target, T> query)
+	{
+		// Reads inside a transaction must see its uncommitted writes, and reads shortly after a write
+		// by the same repository must see that write, so neither can be served by a lagging replica.
+
+		if (replicas.isEmpty() || TransactionSynchronizationManager.isActualTransactionActive() || isReadingOwnWrites(writeTracker))
+			return query.apply(primary);
+
+		final var replica = selectReplica();
+
+		replica.inFlight.incrementAndGet();
+
+		try
+		{
+			return query.apply(replica);
+		}
+		finally
+		{
+			replica.inFlight.decrementAndGet();
+		}
+	}
+
+	private Target selectReplica()
+	{
+		final var start = Math.floorMod(cursor.getAndIncrement(), replicas.size());
+		var selected = replicas.get(start);
+
+		if (strategy == ReplicaSelectionStrategy.ROUND_ROBIN)
+			return selected;
+
+		// Starting from the round-robin position spreads ties between equally loaded replicas.
+
+		for (var offset = 1; offset < replicas.size(); offset++)
+		{
+			final var candidate = replicas.get((start + offset) % replicas.size());
+
+			if (candidate.inFlight.get() < selected.inFlight.get())
+				selected = candidate;
+		}
+
+		return selected;
+	}
+
+	private static final class Target
+	{
+		private final AtomicInteger inFlight = new AtomicInteger();
+		private final NamedParameterJdbcTemplate namedTemplate;
+		private final JdbcTemplate template;
+
+		private Target(final JdbcTemplate template)
+		{
+			// The named template is kept with its JdbcTemplate, so its parsed-SQL cache outlives a single query.
+
+			this.template = Argument.notNull(template, "template");
+			this.namedTemplate = new NamedParameterJdbcTemplate(template);
+		}
+	}
+}
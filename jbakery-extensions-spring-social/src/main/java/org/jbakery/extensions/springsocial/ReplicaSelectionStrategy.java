@@ -0,0 +1,7 @@
+package org.jbakery.extensions.springsocial;
+
+public enum ReplicaSelectionStrategy
+{
+	LEAST_LOADED,
+	ROUND_ROBIN
+}
@@ -0,0 +1,103 @@
+package org.jbakery.extensions.springsocial;
+
+import java.util.concurrent.Executor;
+import org.jbakery.arguments.Argument;
+import org.springframework.security.crypto.encrypt.TextEncryptor;
+import org.springframework.social.connect.ConnectionFactoryLocator;
+
+// The immutable collaborators shared by every repository created from the same configuration.
+
+final class RepositoryContext
+{
+	private final RequestCoalescer coalescer;
+	private final ConnectionFactoryLocator connectionFactoryLocator;
+	private final Executor executor;
+	private final ConnectionRowMapper mapper;
+	private final RepositoryMetrics metrics;
+	private final BoundedCache<String, JdbcConnectionRepository> repositories;
+	private final ReadRouter router;
+	private final Savepoints savepoints;
+	private final StatementCatalog statements;
+	private final TextEncryptor textEncryptor;
+	private final UserIdCache userIdCache;
+
+	RepositoryContext(
+		ConnectionFactoryLocator connectionFactoryLocator,
+		ReadRouter router,
+		StatementCatalog statements,
+		TextEncryptor textEncryptor,
+		boolean lazyTokenDecryption,
+		Executor executor,
+		UserIdCache userIdCache,
+		RequestCoalescer coalescer,
+		RepositoryMetrics metrics,
+		BoundedCache<String, JdbcConnectionRepository> repositories)
+	{
+		this.connectionFactoryLocator = Argument.notNull(connectionFactoryLocator, "connectionFactoryLocator");
+		this.router = Argument.notNull(router, "router");
+		this.statements = Argument.notNull(statements, "statements");
+		this.textEncryptor = Argument.notNull(textEncryptor, "textEncryptor");
+		this.executor = Argument.notNull(executor, "executor");
+		this.userIdCache = userIdCache;
+		this.coalescer = coalescer;
+		this.metrics = Argument.notNull(metrics, "metrics");
+		this.repositories = repositories;
+		this.mapper = new ConnectionRowMapper(connectionFactoryLocator, textEncryptor, lazyTokenDecryption, metrics);
+		this.savepoints = new Savepoints(router.getPrimary().getDataSource());
+	}
+
+	RequestCoalescer getCoalescer()
+	{
+		return coalescer;
+	}
+
+	ConnectionFactoryLocator getConnectionFactoryLocator()
+	{
+		return connectionFactoryLocator;
+	}
+
+	Executor getExecutor()
+	{
+		return executor;
+	}
+
+	ConnectionRowMapper getMapper()
+	{
+		return mapper;
+	}
+
+	RepositoryMetrics getMetrics()
+	{
+		return metrics;
+	}
+
+	BoundedCache<String, JdbcConnectionRepository> getRepositories()
+	{
+		return repositories;
+	}
+
+	ReadRouter getRouter()
+	{
+		return router;
+	}
+
+	Savepoints getSavepoints()
+	{
+		return savepoints;
+	}
+
+	StatementCatalog getStatements()
+	{
+		return statements;
+	}
+
+	TextEncryptor getTextEncryptor()
+	{
+		return textEncryptor;
+	}
+
+	UserIdCache getUserIdCache()
+	{
+		return userIdCache;
+	}
+}
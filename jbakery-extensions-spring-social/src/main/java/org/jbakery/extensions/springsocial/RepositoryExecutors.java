@@ -0,0 +1,63 @@
+package org.jbakery.extensions.springsocial;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+final class RepositoryExecutors
+{
+	// The defaults for blocking JDBC work are kept off the common ForkJoinPool, which parallel streams
+	// (including bulk token decryption) share, so slow queries can't starve those streams or the other way
+	// around. Shard fan-out waits on shard queries, so it gets a pool of its own.
+
+	private static final Executor QUERIES = createExecutor("jbakery-queries");
+	private static final int QUEUE_CAPACITY_PER_THREAD = 64;
+	private static final Executor SHARDS = createExecutor("jbakery-shards");
+
+	private RepositoryExecutors()
+	{
+	}
+
+	static Executor getQueries()
+	{
+		return QUERIES;
+	}
+
+	static Executor getShards()
+	{
+		return SHARDS;
+	}
+
+	private static Executor createExecutor(final String name)
+	{
+		// The threads are daemons and idle ones exit, so an unused pool never keeps the application alive.
+		// The queue is bounded; once it is full, the submitting thread runs the task itself, which slows
+		// callers down instead of letting a backlog of queries grow without limit.
+
+		final var threadCount = Math.max(2, Runtime.getRuntime().availableProcessors());
+		final var threadNumber = new AtomicInteger();
+
+		final var executor =
+			new ThreadPoolExecutor(
+				threadCount,
+				threadCount,
+				60,
+				TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(threadCount * QUEUE_CAPACITY_PER_THREAD),
+				runnable ->
+				{
+					final var thread = new Thread(runnable, name + "-" + threadNumber.incrementAndGet());
+
+					thread.setDaemon(true);
+
+					return thread;
+				},
+				new ThreadPoolExecutor.CallerRunsPolicy());
+
+		executor.allowCoreThreadTimeOut(true);
+
+		return executor;
+	}
+}
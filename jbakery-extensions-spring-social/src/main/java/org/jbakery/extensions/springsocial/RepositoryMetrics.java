@@ -0,0 +1,55 @@
+package org.jbakery.extensions.springsocial;
+
+public interface RepositoryMetrics
+{
+	RepositoryMetrics NONE =
+		new RepositoryMetrics()
+		{
+			@Override
+			public boolean isEnabled()
+			{
+				return false;
+			}
+		};
+
+	default boolean isEnabled()
+	{
+		return true;
+	}
+
+	default void incrementDuplicateConnections()
+	{
+	}
+
+	default void incrementMissingConnections()
+	{
+	}
+
+	default void incrementSignUps()
+	{
+	}
+
+	default void recordConnectionCreation(long durationNanos)
+	{
+	}
+
+	default void recordDecryption(long durationNanos)
+	{
+	}
+
+	default void recordEncryption(long durationNanos)
+	{
+	}
+
+	default void recordQuery(String operation, long durationNanos)
+	{
+	}
+
+	default void recordRowCount(String operation, int rowCount)
+	{
+	}
+
+	default void recordRowMapping(long durationNanos)
+	{
+	}
+}
@@ -0,0 +1,81 @@
+package org.jbakery.extensions.springsocial;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+final class RequestCoalescer
+{
+	private final LongAdder coalescedCount = new LongAdder();
+	private final LongAdder executedCount = new LongAdder();
+	private final ConcurrentHashMap<Object, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+	<V> V execute(final Object key, final Supplier<V> supplier)
+	{
+		// The first caller for a key runs the request; callers arriving while it runs share its outcome.
+		// Nothing is kept once the request completes.
+
+		final var future = new CompletableFuture<Object>();
+		final var existingFuture = inFlight.putIfAbsent(key, future);
+
+		if (existingFuture != null)
+		{
+			coalescedCount.increment();
+
+			return (V)join(existingFuture);
+		}
+
+		executedCount.increment();
+
+		try
+		{
+			final var value = supplier.get();
+
+			future.complete(value);
+
+			return value;
+		}
+		catch (final Throwable e)
+		{
+			// Errors are shared too; otherwise the callers waiting on this request would never be released.
+
+			future.completeExceptionally(e);
+
+			throw e;
+		}
+		finally
+		{
+			inFlight.remove(key, future);
+		}
+	}
+
+	long getCoalescedCount()
+	{
+		return coalescedCount.sum();
+	}
+
+	long getExecutedCount()
+	{
+		return executedCount.sum();
+	}
+
+	private static Object join(final CompletableFuture<Object> future)
+	{
+		try
+		{
+			return future.join();
+		}
+		catch (final CompletionException e)
+		{
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException)e.getCause();
+
+			if (e.getCause() instanceof Error)
+				throw (Error)e.getCause();
+
+			throw e;
+		}
+	}
+}
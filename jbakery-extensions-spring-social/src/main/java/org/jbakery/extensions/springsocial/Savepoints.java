@@ -0,0 +1,37 @@
+package org.jbakery.extensions.springsocial;
+
+import java.util.function.Supplier;
+import javax.sql.DataSource;
+import org.jbakery.arguments.Argument;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+// Runs statements that may fail so that the failure can be undone and the work retried. Inside the caller's
+// transaction, the action runs under a savepoint, and a failure rolls back to it (PostgreSQL would otherwise
+// reject every later statement of the transaction). Outside of one, the action gets a transaction of its own.
+
+final class Savepoints
+{
+	private final TransactionTemplate transactionTemplate;
+
+	Savepoints(DataSource dataSource)
+	{
+		transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(Argument.notNull(dataSource, "dataSource")));
+		transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_NESTED);
+	}
+
+	<T> T execute(final Supplier<T> action)
+	{
+		return transactionTemplate.execute(status -> action.get());
+	}
+
+	boolean canRetryLockFailure()
+	{
+		// A deadlock victim (and, depending on configuration, a lock wait timeout) loses its whole transaction
+		// on MySQL, savepoints included, so only work that ran in a transaction of its own can be retried.
+
+		return !TransactionSynchronizationManager.isActualTransactionActive();
+	}
+}
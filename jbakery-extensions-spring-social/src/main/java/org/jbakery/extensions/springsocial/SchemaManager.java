@@ -0,0 +1,325 @@
+package org.jbakery.extensions.springsocial;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.sql.DataSource;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jbakery.arguments.Argument;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+public final class SchemaManager
+{
+	private static final Log log = LogFactory.getLog(SchemaManager.class);
+
+	private final DatabaseDialect dialect;
+	private final JdbcTemplate jdbcTemplate;
+	private final SchemaConfiguration schemaConfiguration;
+
+	private boolean failOnMissingIndex;
+
+	public SchemaManager(DataSource dataSource, SchemaConfiguration schemaConfiguration)
+	{
+		this(dataSource, schemaConfiguration, DatabaseDialect.detect(Argument.notNull(dataSource, "dataSource")));
+	}
+
+	public SchemaManager(DataSource dataSource, SchemaConfiguration schemaConfiguration, DatabaseDialect dialect)
+	{
+		this.jdbcTemplate = new JdbcTemplate(Argument.notNull(dataSource, "dataSource"));
+		this.schemaConfiguration = Argument.notNull(schemaConfiguration, "schemaConfiguration");
+		this.dialect = Argument.notNull(dialect, "dialect");
+	}
+
+	public boolean createSchema()
+	{
+		if (tableExists())
+			return false;
+
+		for (final var statement : getCreateStatements())
+			jdbcTemplate.execute(statement);
+
+		return true;
+	}
+
+	public List<String> getCreateStatements()
+	{
+		final var tableName = schemaConfiguration.getTableName();
+		final var userIdColumnName = schemaConfiguration.getUserIdColumnName();
+		final var providerIdColumnName = schemaConfiguration.getProviderIdColumnName();
+		final var providerUserIdColumnName = schemaConfiguration.getProviderUserIdColumnName();
+		final var rankColumnName = schemaConfiguration.getRankColumnName();
+
+		final var createTable =
+			String.format(
+				"CREATE TABLE %s (%s %s NOT NULL, %s %s NOT NULL, %s %s NOT NULL, %s %s NOT NULL, %s %s, %s %s, %s %s, %s %s NOT NULL, %s %s, %s %s, %s %s, PRIMARY KEY (%s, %s, %s))",
+				tableName,
+				userIdColumnName,
+				dialect.columnType(Types.VARCHAR, 255),
+				providerIdColumnName,
+				dialect.columnType(Types.VARCHAR, 255),
+				providerUserIdColumnName,
+				dialect.columnType(Types.VARCHAR, 255),
+				rankColumnName,
+				dialect.columnType(Types.INTEGER, 0),
+				schemaConfiguration.getDisplayNameColumnName(),
+				dialect.columnType(Types.VARCHAR, 255),
+				schemaConfiguration.getProfileUrlColumnName(),
+				dialect.columnType(Types.VARCHAR, 512),
+				schemaConfiguration.getImageUrlColumnName(),
+				dialect.columnType(Types.VARCHAR, 512),
+				schemaConfiguration.getAccessTokenColumnName(),
+				dialect.columnType(Types.VARCHAR, 512),
+				schemaConfiguration.getSecretColumnName(),
+				dialect.columnType(Types.VARCHAR, 512),
+				schemaConfiguration.getRefreshTokenColumnName(),
+				dialect.columnType(Types.VARCHAR, 512),
+				schemaConfiguration.getExpireTimeColumnName(),
+				dialect.columnType(Types.BIGINT, 0),
+				userIdColumnName,
+				providerIdColumnName,
+				providerUserIdColumnName);
+
+		final var createRankIndex =
+			String.format(
+				"CREATE UNIQUE INDEX %sRank ON %s (%s, %s, %s)",
+				tableName,
+				tableName,
+				userIdColumnName,
+				providerIdColumnName,
+				rankColumnName);
+
+		final var createProviderUserIndex =
+			String.format(
+				"CREATE INDEX %sProviderUser ON %s (%s, %s)",
+				tableName,
+				tableName,
+				providerIdColumnName,
+				providerUserIdColumnName);
+
+		// Only the refresh scheduler's range scan needs this one, so validate() doesn't require it.
+
+		final var createExpireTimeIndex =
+			String.format(
+				"CREATE INDEX %sExpireTime ON %s (%s)",
+				tableName,
+				tableName,
+				schemaConfiguration.getExpireTimeColumnName());
+
+		return Arrays.asList(createTable, createRankIndex, createProviderUserIndex, createExpireTimeIndex);
+	}
+
+	public List<String> findMissingColumns()
+	{
+		final var columns = jdbcTemplate.execute(this::readColumns);
+		final var missingColumns = new ArrayList<String>();
+
+		final var requiredColumns =
+			Arrays.asList(
+				schemaConfiguration.getUserIdColumnName(),
+				schemaConfiguration.getProviderIdColumnName(),
+				schemaConfiguration.getProviderUserIdColumnName(),
+				schemaConfiguration.getRankColumnName(),
+				schemaConfiguration.getDisplayNameColumnName(),
+				schemaConfiguration.getProfileUrlColumnName(),
+				schemaConfiguration.getImageUrlColumnName(),
+				schemaConfiguration.getAccessTokenColumnName(),
+				schemaConfiguration.getSecretColumnName(),
+				schemaConfiguration.getRefreshTokenColumnName(),
+				schemaConfiguration.getExpireTimeColumnName());
+
+		for (final var requiredColumn : requiredColumns)
+		{
+			if (!containsIgnoreCase(columns, requiredColumn))
+				missingColumns.add(String.format("%s.%s", schemaConfiguration.getTableName(), requiredColumn));
+		}
+
+		return missingColumns;
+	}
+
+	public List<String> findMissingIndexes()
+	{
+		final var indexes = jdbcTemplate.execute(this::readIndexes);
+		final var missingIndexes = new ArrayList<String>();
+
+		// Each required index is satisfied by any index (or the primary key) that leads with its columns.
+
+		final var requiredIndexes =
+			Arrays.asList(
+				Arrays.asList(schemaConfiguration.getUserIdColumnName(), schemaConfiguration.getProviderIdColumnName(), schemaConfiguration.getRankColumnName()),
+				Arrays.asList(schemaConfiguration.getUserIdColumnName(), schemaConfiguration.getProviderIdColumnName(), schemaConfiguration.getProviderUserIdColumnName()),
+				Arrays.asList(schemaConfiguration.getProviderIdColumnName(), schemaConfiguration.getProviderUserIdColumnName()));
+
+		for (final var requiredIndex : requiredIndexes)
+		{
+			if (!isCovered(requiredIndex, indexes))
+				missingIndexes.add(String.format("%s (%s)", schemaConfiguration.getTableName(), String.join(", ", requiredIndex)));
+		}
+
+		return missingIndexes;
+	}
+
+	public void setFailOnMissingIndex(final boolean failOnMissingIndex)
+	{
+		this.failOnMissingIndex = failOnMissingIndex;
+	}
+
+	public boolean tableExists()
+	{
+		return jdbcTemplate.execute((Connection connection) ->
+		{
+			final var metaData = connection.getMetaData();
+
+			try (final var tables = metaData.getTables(connection.getCatalog(), getSchema(connection), toIdentifier(metaData, schemaConfiguration.getTableName()), null))
+			{
+				return tables.next();
+			}
+		});
+	}
+
+	public void validate()
+	{
+		final var missingIndexes = findMissingIndexes();
+
+		if (missingIndexes.isEmpty())
+			return;
+
+		final var message = "Connection queries will scan the table; missing indexes: " + String.join("; ", missingIndexes);
+
+		if (failOnMissingIndex)
+			throw new IllegalStateException(message);
+
+		log.warn(message);
+	}
+
+	private List<String> readColumns(final Connection connection)
+		throws SQLException
+	{
+		final var metaData = connection.getMetaData();
+		final var columns = new ArrayList<String>();
+
+		try (final var results = metaData.getColumns(connection.getCatalog(), getSchema(connection), toIdentifier(metaData, schemaConfiguration.getTableName()), null))
+		{
+			while (results.next())
+				columns.add(results.getString("COLUMN_NAME"));
+		}
+
+		return columns;
+	}
+
+	private List<List<String>> readIndexes(final Connection connection)
+		throws SQLException
+	{
+		final var metaData = connection.getMetaData();
+		final var catalog = connection.getCatalog();
+		final var schema = getSchema(connection);
+		final var tableName = toIdentifier(metaData, schemaConfiguration.getTableName());
+		final var indexColumns = new TreeMap<String, Map<Integer, String>>();
+
+		try (final var results = metaData.getIndexInfo(catalog, schema, tableName, false, true))
+		{
+			while (results.next())
+			{
+				final var indexName = results.getString("INDEX_NAME");
+				final var columnName = results.getString("COLUMN_NAME");
+
+				// Table statistics rows have neither an index name nor a column.
+
+				if (indexName == null || columnName == null)
+					continue;
+
+				indexColumns
+					.computeIfAbsent("index:" + indexName, ignored -> new TreeMap<>())
+					.put((int)results.getShort("ORDINAL_POSITION"), columnName);
+			}
+		}
+
+		try (final var results = metaData.getPrimaryKeys(catalog, schema, tableName))
+		{
+			while (results.next())
+			{
+				indexColumns
+					.computeIfAbsent("primaryKey", ignored -> new TreeMap<>())
+					.put((int)results.getShort("KEY_SEQ"), results.getString("COLUMN_NAME"));
+			}
+		}
+
+		final var indexes = new ArrayList<List<String>>();
+
+		for (final var columns : indexColumns.values())
+			indexes.add(new ArrayList<>(columns.values()));
+
+		return indexes;
+	}
+
+	private static boolean containsIgnoreCase(final List<String> values, final String value)
+	{
+		for (final var candidate : values)
+		{
+			if (candidate.equalsIgnoreCase(value))
+				return true;
+		}
+
+		return false;
+	}
+
+	private static String getSchema(final Connection connection)
+	{
+		// Older drivers don't implement Connection.getSchema(); searching every schema is the fallback.
+
+		try
+		{
+			return connection.getSchema();
+		}
+		catch (final SQLException | AbstractMethodError e)
+		{
+			return null;
+		}
+	}
+
+	private static boolean isCovered(final List<String> requiredColumns, final List<List<String>> indexes)
+	{
+		for (final var indexColumns : indexes)
+		{
+			if (indexColumns.size() < requiredColumns.size())
+				continue;
+
+			var covered = true;
+
+			for (var index = 0; index < requiredColumns.size(); index++)
+			{
+				if (!requiredColumns.get(index).equalsIgnoreCase(indexColumns.get(index)))
+				{
+					covered = false;
+					break;
+				}
+			}
+
+			if (covered)
+				return true;
+		}
+
+		return false;
+	}
+
+	private static String toIdentifier(final DatabaseMetaData metaData, final String name)
+		throws SQLException
+	{
+		// Unquoted identifiers are stored folded to one case, and metadata lookups must match that case.
+
+		if (metaData.storesUpperCaseIdentifiers())
+			return name.toUpperCase(Locale.ROOT);
+
+		if (metaData.storesLowerCaseIdentifiers())
+			return name.toLowerCase(Locale.ROOT);
+
+		return name;
+	}
+}
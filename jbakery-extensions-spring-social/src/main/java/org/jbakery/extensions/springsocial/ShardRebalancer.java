@@ -0,0 +1,84 @@
+package org.jbakery.extensions.springsocial;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.jbakery.arguments.Argument;
+
+public final class ShardRebalancer
+{
+	private final ConsistentHashRing<JdbcUsersConnectionRepository> shards;
+
+	private int pageSize = 1000;
+
+	public ShardRebalancer(Map<String, JdbcUsersConnectionRepository> shards)
+	{
+		this.shards = new ConsistentHashRing<>(Argument.notNull(shards, "shards"));
+	}
+
+	public long rebalance()
+	{
+		var movedCount = 0L;
+
+		for (final var shard : shards.getNodes().entrySet())
+			movedCount += rebalance(shard.getKey(), shard.getValue());
+
+		return movedCount;
+	}
+
+	public void setPageSize(final int pageSize)
+	{
+		if (pageSize < 1)
+			throw new IllegalArgumentException("pageSize");
+
+		this.pageSize = pageSize;
+	}
+
+	private long rebalance(final String sourceName, final JdbcUsersConnectionRepository source)
+	{
+		// Connections are copied to their new shard before they are removed from the old one, so a user is
+		// never missing from both. An interrupted run can simply be repeated: connections that were already
+		// copied are skipped as duplicates and then removed from the old shard.
+
+		final var pending = new HashMap<String, List<UserConnection>>();
+		final var movedCount = new long[1];
+
+		try (final var connections = source.streamConnectionsByPage(pageSize))
+		{
+			connections.forEach(connection ->
+			{
+				final var targetName = shards.getName(connection.getUserId());
+
+				if (targetName.equals(sourceName))
+					return;
+
+				final var batch = pending.computeIfAbsent(targetName, ignored -> new ArrayList<>());
+
+				batch.add(connection);
+
+				if (batch.size() >= pageSize)
+					movedCount[0] += move(source, targetName, pending.remove(targetName));
+			});
+		}
+
+		for (final var batch : pending.entrySet())
+			movedCount[0] += move(source, batch.getKey(), batch.getValue());
+
+		return movedCount[0];
+	}
+
+	private long move(final JdbcUsersConnectionRepository source, final String targetName, final List<UserConnection> connections)
+	{
+		shards.getNodes().get(targetName).addConnections(connections);
+
+		final var connectionKeys = new ArrayList<UserConnectionKey>(connections.size());
+
+		for (final var connection : connections)
+			connectionKeys.add(new UserConnectionKey(connection.getUserId(), connection.getConnection().getKey()));
+
+		source.removeConnections(connectionKeys);
+
+		return connections.size();
+	}
+}
@@ -0,0 +1,131 @@
+package org.jbakery.extensions.springsocial;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import org.jbakery.arguments.Argument;
+import org.springframework.social.connect.Connection;
+import org.springframework.social.connect.ConnectionSignUp;
+import org.springframework.social.connect.UsersConnectionRepository;
+
+public final class ShardedUsersConnectionRepository
+	implements UsersConnectionRepository
+{
+	private final ConsistentHashRing<JdbcUsersConnectionRepository> shards;
+
+	private ConnectionSignUp connectionSignUp;
+	private Executor executor = RepositoryExecutors.getShards();
+
+	public ShardedUsersConnectionRepository(Map<String, JdbcUsersConnectionRepository> shards)
+	{
+		// Shards are identified by name rather than by position, so reordering them doesn't move any users.
+
+		this.shards = new ConsistentHashRing<>(Argument.notNull(shards, "shards"));
+	}
+
+	@Override
+	public List<String> findUserIdsWithConnection(final Connection<?> connection)
+	{
+		Argument.notNull(connection, "connection");
+
+		// The shards are partitioned by userId, so any shard may hold users with this connection.
+
+		final var userIds = new LinkedHashSet<String>();
+
+		for (final var shardUserIds : scatter(shard -> shard.findUserIdsWithConnection(connection)))
+			userIds.addAll(shardUserIds);
+
+		if (!userIds.isEmpty())
+			return new ArrayList<>(userIds);
+
+		// Sign-up happens here rather than in a shard, which would register the new user on itself.
+
+		if (connectionSignUp == null)
+			return Collections.emptyList();
+
+		final var userId = connectionSignUp.execute(connection);
+
+		if (userId == null)
+			return Collections.emptyList();
+
+		createConnectionRepository(userId).addConnection(connection);
+
+		return Arrays.asList(userId);
+	}
+
+	@Override
+	public Set<String> findUserIdsConnectedTo(final String providerId, final Set<String> providerUserIds)
+	{
+		Argument.notNull(providerId, "providerId");
+		Argument.notNull(providerUserIds, "providerUserIds");
+
+		final var userIds = new HashSet<String>();
+
+		for (final var shardUserIds : scatter(shard -> shard.findUserIdsConnectedTo(providerId, providerUserIds)))
+			userIds.addAll(shardUserIds);
+
+		return userIds;
+	}
+
+	@Override
+	public JdbcConnectionRepository createConnectionRepository(final String userId)
+	{
+		Argument.notNull(userId, "userId");
+
+		return shards.get(userId).createConnectionRepository(userId);
+	}
+
+	public String getShardName(final String userId)
+	{
+		Argument.notNull(userId, "userId");
+
+		return shards.getName(userId);
+	}
+
+	@Override
+	public void setConnectionSignUp(final ConnectionSignUp connectionSignUp)
+	{
+		this.connectionSignUp = Argument.notNull(connectionSignUp, "connectionSignUp");
+	}
+
+	public void setExecutor(final Executor executor)
+	{
+		this.executor = Argument.notNull(executor, "executor");
+	}
+
+	private <T> List<T> scatter(final Function<JdbcUsersConnectionRepository, T> query)
+	{
+		final var futures = new ArrayList<CompletableFuture<T>>();
+
+		for (final var shard : shards.getNodes().values())
+			futures.add(CompletableFuture.supplyAsync(() -> query.apply(shard), executor));
+
+		final var results = new ArrayList<T>(futures.size());
+
+		try
+		{
+			for (final var future : futures)
+				results.add(future.join());
+		}
+		catch (final CompletionException e)
+		{
+			// Rethrow the shard's own exception (typically a DataAccessException) rather than the wrapper.
+
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException)e.getCause();
+
+			throw e;
+		}
+
+		return results;
+	}
+}
@@ -0,0 +1,553 @@
+package org.jbakery.extensions.springsocial;
+
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.List;
+import org.jbakery.arguments.Argument;
+
+final class StatementCatalog
+{
+	// Column positions within every statement that selects connection rows.
+
+	static final int USER_ID_COLUMN = 1;
+	static final int PROVIDER_ID_COLUMN = 2;
+	static final int PROVIDER_USER_ID_COLUMN = 3;
+	static final int DISPLAY_NAME_COLUMN = 4;
+	static final int PROFILE_URL_COLUMN = 5;
+	static final int IMAGE_URL_COLUMN = 6;
+	static final int ACCESS_TOKEN_COLUMN = 7;
+	static final int SECRET_COLUMN = 8;
+	static final int REFRESH_TOKEN_COLUMN = 9;
+	static final int EXPIRE_TIME_COLUMN = 10;
+
+	// Only statements that page by rank select it, after all of the other columns.
+
+	static final int RANK_COLUMN = 11;
+
+	// Column positions within the summary projection, which leaves out the tokens.
+
+	static final int SUMMARY_PROVIDER_ID_COLUMN = 1;
+	static final int SUMMARY_PROVIDER_USER_ID_COLUMN = 2;
+	static final int SUMMARY_DISPLAY_NAME_COLUMN = 3;
+	static final int SUMMARY_IMAGE_URL_COLUMN = 4;
+	static final int SUMMARY_RANK_COLUMN = 5;
+
+	private final DatabaseDialect dialect;
+	private final String connectionPageOrder;
+	private final String findAllConnections;
+	private final String findConnections;
+	private final String findConnectionPage;
+	private final String findConnectionSummaryPage;
+	private final String findConnectionsToUsersPrefix;
+	private final String findConnectionsToUsersSuffix;
+	private final String findPrimaryConnection;
+	private final String findUserIdsConnectedTo;
+	private final String findUserIdsWithConnection;
+	private final String getConnection;
+	private final String insertConnection;
+	private final String insertConnectionIfAbsent;
+	private final String pageCriterion;
+	private final String pageOfProviderCriterion;
+	private final String pageOfProviderResumedCriterion;
+	private final String pageResumedCriterion;
+	private final String providerIdCriterion;
+	private final String providerUserIdCriterion;
+	private final String reEncryptionFirstPage;
+	private final String reEncryptionNextPage;
+	private final String removeConnection;
+	private final String removeConnections;
+	private final String scanConnections;
+	private final String scanExpiringFirstPage;
+	private final String scanExpiringNextPage;
+	private final String scanFirstPage;
+	private final String scanNextPage;
+	private final String updateConnection;
+	private final String updateTokens;
+
+	StatementCatalog(final SchemaConfiguration schemaConfiguration, final DatabaseDialect dialect)
+	{
+		Argument.notNull(schemaConfiguration, "schemaConfiguration");
+		this.dialect = Argument.notNull(dialect, "dialect");
+
+		final var tableName = schemaConfiguration.getTableName();
+		final var userIdColumnName = schemaConfiguration.getUserIdColumnName();
+		final var providerIdColumnName = schemaConfiguration.getProviderIdColumnName();
+		final var providerUserIdColumnName = schemaConfiguration.getProviderUserIdColumnName();
+		final var rankColumnName = schemaConfiguration.getRankColumnName();
+
+		final var columns =
+			String.format(
+				"%s, %s, %s, %s, %s, %s, %s, %s, %s, %s",
+				userIdColumnName,
+				providerIdColumnName,
+				providerUserIdColumnName,
+				schemaConfiguration.getDisplayNameColumnName(),
+				schemaConfiguration.getProfileUrlColumnName(),
+				schemaConfiguration.getImageUrlColumnName(),
+				schemaConfiguration.getAccessTokenColumnName(),
+				schemaConfiguration.getSecretColumnName(),
+				schemaConfiguration.getRefreshTokenColumnName(),
+				schemaConfiguration.getExpireTimeColumnName());
+
+		final var selectAll = String.format("SELECT %s FROM %s", columns, tableName);
+		final var selectAllWithRank = String.format("SELECT %s, %s FROM %s", columns, rankColumnName, tableName);
+
+		findConnections =
+			String.format(
+				"%s WHERE %s = ? AND %s = ? ORDER BY %s",
+				selectAll,
+				userIdColumnName,
+				providerIdColumnName,
+				rankColumnName);
+
+		findPrimaryConnection = dialect.limit(findConnections, 1);
+
+		// Every provider's connections in one pass over the (userId, providerId, rank) index, already grouped.
+
+		findAllConnections =
+			String.format(
+				"%s WHERE %s = ? ORDER BY %s, %s",
+				selectAll,
+				userIdColumnName,
+				providerIdColumnName,
+				rankColumnName);
+
+		// Pages of a user's connections follow the (userId, providerId, rank) index and resume after the
+		// cursor's (providerId, rank). The summary projection reads no tokens, so it needs no decryption.
+
+		findConnectionPage = selectAllWithRank;
+
+		findConnectionSummaryPage =
+			String.format(
+				"SELECT %s, %s, %s, %s, %s FROM %s",
+				providerIdColumnName,
+				providerUserIdColumnName,
+				schemaConfiguration.getDisplayNameColumnName(),
+				schemaConfiguration.getImageUrlColumnName(),
+				rankColumnName,
+				tableName);
+
+		connectionPageOrder = String.format(" ORDER BY %s, %s", providerIdColumnName, rankColumnName);
+		pageCriterion = String.format(" WHERE %s = ?", userIdColumnName);
+
+		pageResumedCriterion =
+			String.format(
+				" WHERE %s = ? AND (%s > ? OR (%s = ? AND %s > ?))",
+				userIdColumnName,
+				providerIdColumnName,
+				providerIdColumnName,
+				rankColumnName);
+
+		pageOfProviderCriterion = String.format(" WHERE %s = ? AND %s = ?", userIdColumnName, providerIdColumnName);
+
+		pageOfProviderResumedCriterion =
+			String.format(
+				" WHERE %s = ? AND %s = ? AND %s > ?",
+				userIdColumnName,
+				providerIdColumnName,
+				rankColumnName);
+
+		getConnection =
+			String.format(
+				"%s WHERE %s = ? AND %s = ? AND %s = ?",
+				selectAll,
+				userIdColumnName,
+				providerIdColumnName,
+				providerUserIdColumnName);
+
+		// The per-provider criteria of findConnectionsToUsers are OR'ed together, so they are
+		// parenthesized as a group to keep the userId restriction applied to all of them. Rows
+		// are placed by index afterward, so the database doesn't need to sort them.
+
+		findConnectionsToUsersPrefix = String.format("%s WHERE %s = :userId AND (", selectAll, userIdColumnName);
+		findConnectionsToUsersSuffix = ")";
+		providerIdCriterion = String.format("%s = :providerId_", providerIdColumnName);
+		providerUserIdCriterion = String.format("%s IN (:providerUserIds_", providerUserIdColumnName);
+
+		// The rank is computed inside the INSERT, so adding a connection takes a single round-trip.
+
+		final var textParameter = dialect.typedParameter(Types.VARCHAR);
+
+		insertConnection =
+			String.format(
+				"INSERT INTO %s (%s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s) SELECT %s, %s, %s, COALESCE(MAX(%s) + 1, 1), %s, %s, %s, %s, %s, %s, %s FROM %s WHERE %s = ? AND %s = ?",
+				tableName,
+				userIdColumnName,
+				providerIdColumnName,
+				providerUserIdColumnName,
+				rankColumnName,
+				schemaConfiguration.getDisplayNameColumnName(),
+				schemaConfiguration.getProfileUrlColumnName(),
+				schemaConfiguration.getImageUrlColumnName(),
+				schemaConfiguration.getAccessTokenColumnName(),
+				schemaConfiguration.getSecretColumnName(),
+				schemaConfiguration.getRefreshTokenColumnName(),
+				schemaConfiguration.getExpireTimeColumnName(),
+				textParameter,
+				textParameter,
+				textParameter,
+				rankColumnName,
+				textParameter,
+				textParameter,
+				textParameter,
+				textParameter,
+				textParameter,
+				textParameter,
+				dialect.typedParameter(Types.BIGINT),
+				tableName,
+				userIdColumnName,
+				providerIdColumnName);
+
+		// The batch variant skips rows that already exist, so one duplicate doesn't fail a whole batch.
+
+		insertConnectionIfAbsent =
+			String.format(
+				"INSERT INTO %s (%s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s) SELECT %s, %s, %s, nextRank.%s, %s, %s, %s, %s, %s, %s, %s FROM (SELECT COALESCE(MAX(%s) + 1, 1) AS %s FROM %s WHERE %s = ? AND %s = ?) nextRank WHERE NOT EXISTS (SELECT 1 FROM %s WHERE %s = ? AND %s = ? AND %s = ?)",
+				tableName,
+				userIdColumnName,
+				providerIdColumnName,
+				providerUserIdColumnName,
+				rankColumnName,
+				schemaConfiguration.getDisplayNameColumnName(),
+				schemaConfiguration.getProfileUrlColumnName(),
+				schemaConfiguration.getImageUrlColumnName(),
+				schemaConfiguration.getAccessTokenColumnName(),
+				schemaConfiguration.getSecretColumnName(),
+				schemaConfiguration.getRefreshTokenColumnName(),
+				schemaConfiguration.getExpireTimeColumnName(),
+				textParameter,
+				textParameter,
+				textParameter,
+				rankColumnName,
+				textParameter,
+				textParameter,
+				textParameter,
+				textParameter,
+				textParameter,
+				textParameter,
+				dialect.typedParameter(Types.BIGINT),
+				rankColumnName,
+				rankColumnName,
+				tableName,
+				userIdColumnName,
+				providerIdColumnName,
+				tableName,
+				userIdColumnName,
+				providerIdColumnName,
+				providerUserIdColumnName);
+
+		updateConnection =
+			String.format(
+				"UPDATE %s SET %s = ?, %s = ?, %s = ?, %s = ?, %s = ?, %s = ?, %s = ? WHERE %s = ? AND %s = ? AND %s = ?",
+				tableName,
+				schemaConfiguration.getDisplayNameColumnName(),
+				schemaConfiguration.getProfileUrlColumnName(),
+				schemaConfiguration.getImageUrlColumnName(),
+				schemaConfiguration.getAccessTokenColumnName(),
+				schemaConfiguration.getSecretColumnName(),
+				schemaConfiguration.getRefreshTokenColumnName(),
+				schemaConfiguration.getExpireTimeColumnName(),
+				userIdColumnName,
+				providerIdColumnName,
+				providerUserIdColumnName);
+
+		// Re-encryption reads only the key and the tokens, in primary key order, and writes the new tokens
+		// back only if the tokens are still the ciphertexts that were read.
+
+		final var accessTokenColumnName = schemaConfiguration.getAccessTokenColumnName();
+		final var keyOrder = String.format(" ORDER BY %s, %s, %s", userIdColumnName, providerIdColumnName, providerUserIdColumnName);
+
+		final var selectTokens =
+			String.format(
+				"SELECT %s, %s, %s, %s, %s, %s FROM %s",
+				userIdColumnName,
+				providerIdColumnName,
+				providerUserIdColumnName,
+				accessTokenColumnName,
+				schemaConfiguration.getSecretColumnName(),
+				schemaConfiguration.getRefreshTokenColumnName(),
+				tableName);
+
+		reEncryptionFirstPage = selectTokens + keyOrder;
+
+		reEncryptionNextPage =
+			String.format(
+				"%s WHERE %s >= ? AND (%s > ? OR (%s = ? AND (%s > ? OR (%s = ? AND %s > ?))))%s",
+				selectTokens,
+				userIdColumnName,
+				userIdColumnName,
+				userIdColumnName,
+				providerIdColumnName,
+				providerIdColumnName,
+				providerUserIdColumnName,
+				keyOrder);
+
+		// All three tokens are compared, and a NULL only matches a NULL: plain equality never matches a NULL
+		// column, which would report such rows as conflicts on every run.
+
+		final var secretColumnName = schemaConfiguration.getSecretColumnName();
+		final var refreshTokenColumnName = schemaConfiguration.getRefreshTokenColumnName();
+
+		updateTokens =
+			String.format(
+				"UPDATE %s SET %s = ?, %s = ?, %s = ? WHERE %s = ? AND %s = ? AND %s = ? AND %s AND %s AND %s",
+				tableName,
+				accessTokenColumnName,
+				secretColumnName,
+				refreshTokenColumnName,
+				userIdColumnName,
+				providerIdColumnName,
+				providerUserIdColumnName,
+				nullSafeEquals(accessTokenColumnName, textParameter),
+				nullSafeEquals(secretColumnName, textParameter),
+				nullSafeEquals(refreshTokenColumnName, textParameter));
+
+		removeConnections =
+			String.format(
+				"DELETE FROM %s WHERE %s = ? AND %s = ?",
+				tableName,
+				userIdColumnName,
+				providerIdColumnName);
+
+		removeConnection =
+			String.format(
+				"DELETE FROM %s WHERE %s = ? AND %s = ? AND %s = ?",
+				tableName,
+				userIdColumnName,
+				providerIdColumnName,
+				providerUserIdColumnName);
+
+		scanConnections = selectAll;
+
+		// Keyset pages are ordered by the (userId, providerId, rank) index and resume after the last row seen.
+
+		final var scanOrder = String.format(" ORDER BY %s, %s, %s", userIdColumnName, providerIdColumnName, rankColumnName);
+
+		scanFirstPage = selectAllWithRank + scanOrder;
+
+		scanNextPage =
+			String.format(
+				"%s WHERE %s >= ? AND (%s > ? OR (%s = ? AND (%s > ? OR (%s = ? AND %s > ?))))%s",
+				selectAllWithRank,
+				userIdColumnName,
+				userIdColumnName,
+				userIdColumnName,
+				providerIdColumnName,
+				providerIdColumnName,
+				rankColumnName,
+				scanOrder);
+
+		// Expiring connections are paged in (expireTime, userId, providerId, rank) order, so the range
+		// condition can use an index on expireTime. A zero expireTime means "never expires".
+
+		final var expireTimeColumnName = schemaConfiguration.getExpireTimeColumnName();
+
+		final var expiringOrder =
+			String.format(
+				" ORDER BY %s, %s, %s, %s",
+				expireTimeColumnName,
+				userIdColumnName,
+				providerIdColumnName,
+				rankColumnName);
+
+		scanExpiringFirstPage =
+			String.format(
+				"%s WHERE %s > 0 AND %s <= ?%s",
+				selectAllWithRank,
+				expireTimeColumnName,
+				expireTimeColumnName,
+				expiringOrder);
+
+		scanExpiringNextPage =
+			String.format(
+				"%s WHERE %s <= ? AND (%s > ? OR (%s = ? AND (%s > ? OR (%s = ? AND (%s > ? OR (%s = ? AND %s > ?))))))%s",
+				selectAllWithRank,
+				expireTimeColumnName,
+				expireTimeColumnName,
+				expireTimeColumnName,
+				userIdColumnName,
+				userIdColumnName,
+				providerIdColumnName,
+				providerIdColumnName,
+				rankColumnName,
+				expiringOrder);
+
+		findUserIdsWithConnection =
+			String.format(
+				"SELECT %s FROM %s WHERE %s = ? AND %s = ?",
+				userIdColumnName,
+				tableName,
+				providerIdColumnName,
+				providerUserIdColumnName);
+
+		findUserIdsConnectedTo =
+			String.format(
+				"SELECT %s FROM %s WHERE %s = :providerId AND %s IN (:providerUserIds)",
+				userIdColumnName,
+				tableName,
+				providerIdColumnName,
+				providerUserIdColumnName);
+	}
+
+	DatabaseDialect getDialect()
+	{
+		return dialect;
+	}
+
+	String getFindAllConnections()
+	{
+		return findAllConnections;
+	}
+
+	String getFindConnections()
+	{
+		return findConnections;
+	}
+
+	String getFindConnectionPage(final boolean ofProvider, final boolean resumed, final int pageSize)
+	{
+		return dialect.limit(findConnectionPage + getPageCriterion(ofProvider, resumed) + connectionPageOrder, pageSize);
+	}
+
+	String getFindConnectionSummaryPage(final boolean ofProvider, final boolean resumed, final int pageSize)
+	{
+		return dialect.limit(findConnectionSummaryPage + getPageCriterion(ofProvider, resumed) + connectionPageOrder, pageSize);
+	}
+
+	String getFindConnectionsToUsersPrefix()
+	{
+		return findConnectionsToUsersPrefix;
+	}
+
+	String getFindConnectionsToUsersSuffix()
+	{
+		return findConnectionsToUsersSuffix;
+	}
+
+	String getFindPrimaryConnection()
+	{
+		return findPrimaryConnection;
+	}
+
+	String getFindUserIdsConnectedTo()
+	{
+		return findUserIdsConnectedTo;
+	}
+
+	String getFindUserIdsWithConnection()
+	{
+		return findUserIdsWithConnection;
+	}
+
+	String getGetConnection()
+	{
+		return getConnection;
+	}
+
+	String getInsertConnection()
+	{
+		return insertConnection;
+	}
+
+	String getInsertConnectionIfAbsent()
+	{
+		return insertConnectionIfAbsent;
+	}
+
+	String getProviderIdCriterion()
+	{
+		return providerIdCriterion;
+	}
+
+	String getProviderUserIdCriterion()
+	{
+		return providerUserIdCriterion;
+	}
+
+	String getReEncryptionFirstPage(final int pageSize)
+	{
+		return dialect.limit(reEncryptionFirstPage, pageSize);
+	}
+
+	String getReEncryptionNextPage(final int pageSize)
+	{
+		return dialect.limit(reEncryptionNextPage, pageSize);
+	}
+
+	String getRemoveConnection()
+	{
+		return removeConnection;
+	}
+
+	String getRemoveConnections()
+	{
+		return removeConnections;
+	}
+
+	String getScanConnections()
+	{
+		return scanConnections;
+	}
+
+	String getScanExpiringFirstPage(final int pageSize)
+	{
+		return dialect.limit(scanExpiringFirstPage, pageSize);
+	}
+
+	String getScanExpiringNextPage(final int pageSize)
+	{
+		return dialect.limit(scanExpiringNextPage, pageSize);
+	}
+
+	String getScanFirstPage(final int pageSize)
+	{
+		return dialect.limit(scanFirstPage, pageSize);
+	}
+
+	String getScanNextPage(final int pageSize)
+	{
+		return dialect.limit(scanNextPage, pageSize);
+	}
+
+	List<String> getStaticStatements()
+	{
+		// Every statement whose text doesn't depend on its arguments, so it can be prepared ahead of use.
+
+		return Arrays.asList(
+			findAllConnections,
+			findConnections,
+			findPrimaryConnection,
+			findUserIdsWithConnection,
+			getConnection,
+			insertConnection,
+			insertConnectionIfAbsent,
+			removeConnection,
+			removeConnections,
+			updateConnection);
+	}
+
+	String getUpdateConnection()
+	{
+		return updateConnection;
+	}
+
+	String getUpdateTokens()
+	{
+		return updateTokens;
+	}
+
+	private String getPageCriterion(final boolean ofProvider, final boolean resumed)
+	{
+		if (ofProvider)
+			return resumed ? pageOfProviderResumedCriterion : pageOfProviderCriterion;
+
+		return resumed ? pageResumedCriterion : pageCriterion;
+	}
+
+	private static String nullSafeEquals(final String columnName, final String parameter)
+	{
+		// Each parameter is bound twice: once for the comparison and once for the NULL test.
+
+		return String.format("(%s = %s OR (%s IS NULL AND %s IS NULL))", columnName, parameter, columnName, parameter);
+	}
+}
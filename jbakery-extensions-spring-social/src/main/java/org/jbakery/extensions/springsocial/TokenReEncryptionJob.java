@@ -0,0 +1,361 @@
+package org.jbakery.extensions.springsocial;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import javax.sql.DataSource;
+import org.jbakery.arguments.Argument;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.crypto.encrypt.TextEncryptor;
+import org.springframework.social.connect.ConnectionKey;
+
+// Moves every stored token from the old key to the new one. Rows are read in primary key order, one page at
+// a time, and each page is written back as a batch of short, independent updates, so no row stays locked
+// for long. The checkpoint after each page lets an interrupted run resume where it stopped.
+//
+// Applications should read through a CompositeTextEncryptor of (new, old) while the job runs, so that rows
+// on either key can be read, and new writes already use the new key. The job itself never guesses: a row is
+// only rotated if it reads as text under the old key and not under the new one. Rows it can't place are
+// left untouched and reported through getAmbiguousKeys; they must be dealt with before the old key is retired.
+
+public final class TokenReEncryptionJob
+{
+	private final LongAdder alreadyRotatedCount = new LongAdder();
+	private final LongAdder ambiguousCount = new LongAdder();
+	private final ConcurrentLinkedQueue<UserConnectionKey> ambiguousKeys = new ConcurrentLinkedQueue<>();
+	private final LongAdder conflictCount = new LongAdder();
+	private final BulkTextEncryptor encryptor;
+	private final JdbcTemplate jdbcTemplate;
+	private final TextEncryptor oldTextEncryptor;
+	private final LongAdder reEncryptedCount = new LongAdder();
+	private final StatementCatalog statements;
+
+	private ReEncryptionCheckpointStore checkpointStore = new InMemoryCheckpointStore();
+	private int pageSize = 500;
+
+	public TokenReEncryptionJob(DataSource dataSource, SchemaConfiguration schemaConfiguration, TextEncryptor oldTextEncryptor, TextEncryptor newTextEncryptor)
+	{
+		this(dataSource, schemaConfiguration, DatabaseDialect.detect(Argument.notNull(dataSource, "dataSource")), oldTextEncryptor, newTextEncryptor);
+	}
+
+	public TokenReEncryptionJob(
+		DataSource dataSource,
+		SchemaConfiguration schemaConfiguration,
+		DatabaseDialect dialect,
+		TextEncryptor oldTextEncryptor,
+		TextEncryptor newTextEncryptor)
+	{
+		this.jdbcTemplate = new JdbcTemplate(Argument.notNull(dataSource, "dataSource"));
+		this.statements = new StatementCatalog(Argument.notNull(schemaConfiguration, "schemaConfiguration"), Argument.notNull(dialect, "dialect"));
+		this.oldTextEncryptor = Argument.notNull(oldTextEncryptor, "oldTextEncryptor");
+		this.encryptor = BulkTextEncryptor.of(Argument.notNull(newTextEncryptor, "newTextEncryptor"));
+
+		jdbcTemplate.setFetchSize(pageSize);
+		jdbcTemplate.setMaxRows(pageSize);
+	}
+
+	public long run()
+	{
+		var checkpoint = checkpointStore.load();
+		var reEncrypted = 0L;
+
+		while (true)
+		{
+			final var rows = queryPage(checkpoint);
+
+			if (rows.isEmpty())
+				break;
+
+			reEncrypted += reEncrypt(rows);
+			checkpoint = rows.get(rows.size() - 1).key;
+
+			checkpointStore.save(checkpoint);
+
+			if (rows.size() < pageSize)
+				break;
+		}
+
+		checkpointStore.clear();
+
+		return reEncrypted;
+	}
+
+	public long getAlreadyRotatedCount()
+	{
+		return alreadyRotatedCount.sum();
+	}
+
+	public long getAmbiguousCount()
+	{
+		return ambiguousCount.sum();
+	}
+
+	public List<UserConnectionKey> getAmbiguousKeys()
+	{
+		return List.copyOf(ambiguousKeys);
+	}
+
+	public long getConflictCount()
+	{
+		return conflictCount.sum();
+	}
+
+	public long getReEncryptedCount()
+	{
+		return reEncryptedCount.sum();
+	}
+
+	public void setCheckpointStore(final ReEncryptionCheckpointStore checkpointStore)
+	{
+		this.checkpointStore = Argument.notNull(checkpointStore, "checkpointStore");
+	}
+
+	public void setPageSize(final int pageSize)
+	{
+		if (pageSize < 1)
+			throw new IllegalArgumentException("pageSize");
+
+		this.pageSize = pageSize;
+
+		// Cap the rows for dialects that can't limit the query themselves.
+
+		jdbcTemplate.setFetchSize(pageSize);
+		jdbcTemplate.setMaxRows(pageSize);
+	}
+
+	private List<TokenRow> queryPage(final UserConnectionKey checkpoint)
+	{
+		if (checkpoint == null)
+			return jdbcTemplate.query(statements.getReEncryptionFirstPage(pageSize), TokenReEncryptionJob::mapRow);
+
+		final var userId = checkpoint.getUserId();
+		final var providerId = checkpoint.getConnectionKey().getProviderId();
+		final var providerUserId = checkpoint.getConnectionKey().getProviderUserId();
+
+		return jdbcTemplate.query(
+			statements.getReEncryptionNextPage(pageSize),
+			TokenReEncryptionJob::mapRow,
+			userId,
+			userId,
+			userId,
+			providerId,
+			providerId,
+			providerUserId);
+	}
+
+	private long reEncrypt(final List<TokenRow> rows)
+	{
+		// Rows are decrypted in parallel once the page is large enough to be worth it, and the tokens of the
+		// rows that need rotating are then encrypted in one bulk call.
+
+		final var stream = rows.size() < 64 ? rows.stream() : rows.parallelStream();
+		final var decryptedRows = stream.map(this::decrypt).collect(Collectors.toList());
+		final var rotatedRows = new ArrayList<DecryptedRow>(rows.size());
+		final var tokens = new ArrayList<String>(rows.size() * 3);
+
+		for (final var decryptedRow : decryptedRows)
+		{
+			if (decryptedRow.state == TokenState.NEW_KEY)
+			{
+				alreadyRotatedCount.increment();
+			}
+			else if (decryptedRow.state == TokenState.AMBIGUOUS)
+			{
+				ambiguousCount.increment();
+				ambiguousKeys.add(decryptedRow.row.key);
+			}
+			else
+			{
+				rotatedRows.add(decryptedRow);
+				tokens.addAll(Arrays.asList(decryptedRow.tokens));
+			}
+		}
+
+		if (rotatedRows.isEmpty())
+			return 0;
+
+		final var reEncryptedTokens = encryptor.encryptAll(tokens);
+		final var parameters = new ArrayList<Object[]>(rotatedRows.size());
+
+		for (var index = 0; index < rotatedRows.size(); index++)
+		{
+			final var row = rotatedRows.get(index).row;
+
+			parameters.add(new Object[]
+			{
+				reEncryptedTokens.get(index * 3),
+				reEncryptedTokens.get(index * 3 + 1),
+				reEncryptedTokens.get(index * 3 + 2),
+				row.key.getUserId(),
+				row.key.getConnectionKey().getProviderId(),
+				row.key.getConnectionKey().getProviderUserId(),
+				row.accessToken,
+				row.accessToken,
+				row.secret,
+				row.secret,
+				row.refreshToken,
+				row.refreshToken
+			});
+		}
+
+		// An update that matches no row lost a race with a concurrent write, which already stored tokens
+		// under the new key (or removed the connection), so it is counted and left alone.
+
+		var reEncrypted = 0L;
+
+		for (final var updateCount : jdbcTemplate.batchUpdate(statements.getUpdateTokens(), parameters))
+		{
+			if (updateCount > 0 || updateCount == Statement.SUCCESS_NO_INFO)
+				reEncrypted++;
+			else
+				conflictCount.increment();
+		}
+
+		reEncryptedCount.add(reEncrypted);
+
+		return reEncrypted;
+	}
+
+	private DecryptedRow decrypt(final TokenRow row)
+	{
+		final var encryptedTokens = new String[]
+		{
+			row.accessToken,
+			row.secret,
+			row.refreshToken
+		};
+
+		// A row without tokens has nothing to rotate.
+
+		if (Arrays.stream(encryptedTokens).allMatch(encryptedToken -> encryptedToken == null))
+			return new DecryptedRow(row, TokenState.NEW_KEY, null);
+
+		// Without authentication (AES/CBC, as Encryptors.text uses), a wrong key still yields valid padding
+		// about once in 256 tries, so a key that "decrypts" a token hasn't proven it is the right one. The row
+		// is decrypted under both keys, and a key only counts if every token comes out as readable text, which
+		// the random bytes of a wrong-key decryption practically never are.
+
+		final var oldTokens = decryptReadable(oldTextEncryptor, encryptedTokens);
+		final var newTokens = decryptReadable(encryptor, encryptedTokens);
+
+		if (oldTokens != null && newTokens == null)
+			return new DecryptedRow(row, TokenState.OLD_KEY, oldTokens);
+
+		if (oldTokens == null && newTokens != null)
+			return new DecryptedRow(row, TokenState.NEW_KEY, null);
+
+		// Readable under both keys or under neither: rotating could store garbage, and counting the row as
+		// rotated would hide it until the old key is gone.
+
+		return new DecryptedRow(row, TokenState.AMBIGUOUS, null);
+	}
+
+	private static String[] decryptReadable(final TextEncryptor textEncryptor, final String[] encryptedTokens)
+	{
+		final var tokens = new String[encryptedTokens.length];
+
+		for (var index = 0; index < tokens.length; index++)
+		{
+			if (encryptedTokens[index] == null)
+				continue;
+
+			try
+			{
+				tokens[index] = textEncryptor.decrypt(encryptedTokens[index]);
+			}
+			catch (final RuntimeException e)
+			{
+				return null;
+			}
+
+			if (!isReadable(tokens[index]))
+				return null;
+		}
+
+		return tokens;
+	}
+
+	private static boolean isReadable(final String token)
+	{
+		// Wrong-key bytes that aren't valid UTF-8 decode to replacement characters; the rest are mostly controls.
+
+		return token.codePoints().noneMatch(codePoint -> codePoint == 0xFFFD || Character.isISOControl(codePoint));
+	}
+
+	private static TokenRow mapRow(final ResultSet results, final int index)
+		throws SQLException
+	{
+		// Columns: userId, providerId, providerUserId, accessToken, secret, refreshToken.
+
+		final var key = new UserConnectionKey(results.getString(1), new ConnectionKey(results.getString(2), results.getString(3)));
+
+		return new TokenRow(key, results.getString(4), results.getString(5), results.getString(6));
+	}
+
+	private enum TokenState
+	{
+		AMBIGUOUS,
+		NEW_KEY,
+		OLD_KEY
+	}
+
+	private static final class DecryptedRow
+	{
+		private final TokenRow row;
+		private final TokenState state;
+		private final String[] tokens;
+
+		private DecryptedRow(final TokenRow row, final TokenState state, final String[] tokens)
+		{
+			this.row = row;
+			this.state = state;
+			this.tokens = tokens;
+		}
+	}
+
+	private static final class InMemoryCheckpointStore
+		implements ReEncryptionCheckpointStore
+	{
+		private volatile UserConnectionKey checkpoint;
+
+		@Override
+		public UserConnectionKey load()
+		{
+			return checkpoint;
+		}
+
+		@Override
+		public void save(final UserConnectionKey checkpoint)
+		{
+			this.checkpoint = checkpoint;
+		}
+
+		@Override
+		public void clear()
+		{
+			checkpoint = null;
+		}
+	}
+
+	private static final class TokenRow
+	{
+		private final String accessToken;
+		private final UserConnectionKey key;
+		private final String refreshToken;
+		private final String secret;
+
+		private TokenRow(final UserConnectionKey key, final String accessToken, final String secret, final String refreshToken)
+		{
+			this.key = key;
+			this.accessToken = accessToken;
+			this.secret = secret;
+			this.refreshToken = refreshToken;
+		}
+	}
+}
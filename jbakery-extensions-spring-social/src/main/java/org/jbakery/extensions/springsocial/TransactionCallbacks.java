@@ -0,0 +1,28 @@
+package org.jbakery.extensions.springsocial;
+
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+final class TransactionCallbacks
+{
+	private TransactionCallbacks()
+	{
+	}
+
+	static void afterCompletion(final Runnable action)
+	{
+		// Without a synchronized transaction, the write has already completed.
+
+		if (!TransactionSynchronizationManager.isSynchronizationActive())
+			return;
+
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter()
+		{
+			@Override
+			public void afterCompletion(final int status)
+			{
+				action.run();
+			}
+		});
+	}
+}
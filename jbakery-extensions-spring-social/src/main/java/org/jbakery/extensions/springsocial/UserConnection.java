@@ -0,0 +1,26 @@
+package org.jbakery.extensions.springsocial;
+
+import org.jbakery.arguments.Argument;
+import org.springframework.social.connect.Connection;
+
+public final class UserConnection
+{
+	private final Connection<?> connection;
+	private final String userId;
+
+	public UserConnection(String userId, Connection<?> connection)
+	{
+		this.userId = Argument.notNull(userId, "userId");
+		this.connection = Argument.notNull(connection, "connection");
+	}
+
+	public Connection<?> getConnection()
+	{
+		return connection;
+	}
+
+	public String getUserId()
+	{
+		return userId;
+	}
+}
@@ -0,0 +1,47 @@
+package org.jbakery.extensions.springsocial;
+
+import java.util.Objects;
+import org.jbakery.arguments.Argument;
+import org.springframework.social.connect.ConnectionKey;
+
+public final class UserConnectionKey
+{
+	private final ConnectionKey connectionKey;
+	private final String userId;
+
+	public UserConnectionKey(String userId, ConnectionKey connectionKey)
+	{
+		this.userId = Argument.notNull(userId, "userId");
+		this.connectionKey = Argument.notNull(connectionKey, "connectionKey");
+	}
+
+	public ConnectionKey getConnectionKey()
+	{
+		return connectionKey;
+	}
+
+	public String getUserId()
+	{
+		return userId;
+	}
+
+	@Override
+	public boolean equals(final Object object)
+	{
+		if (this == object)
+			return true;
+
+		if (!(object instanceof UserConnectionKey))
+			return false;
+
+		final var other = (UserConnectionKey)object;
+
+		return userId.equals(other.userId) && connectionKey.equals(other.connectionKey);
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return Objects.hash(userId, connectionKey);
+	}
+}
@@ -0,0 +1,102 @@
+package org.jbakery.extensions.springsocial;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.function.BiPredicate;
+import java.util.function.Supplier;
+import org.jbakery.arguments.Argument;
+import org.springframework.social.connect.ConnectionKey;
+
+public final class UserIdCache
+{
+	private final BoundedCache<ConnectionKey, List<String>> cache;
+	private final RequestCoalescer coalescer = new RequestCoalescer();
+	private final Duration negativeTimeToLive;
+
+	public UserIdCache(final int maximumSize, final Duration timeToLive, final Duration negativeTimeToLive)
+	{
+		Argument.notNull(negativeTimeToLive, "negativeTimeToLive");
+
+		if (negativeTimeToLive.isNegative() || negativeTimeToLive.isZero())
+			throw new IllegalArgumentException("negativeTimeToLive");
+
+		this.cache = new BoundedCache<>(maximumSize, timeToLive);
+		this.negativeTimeToLive = negativeTimeToLive;
+	}
+
+	public long getCoalescedCount()
+	{
+		return coalescer.getCoalescedCount();
+	}
+
+	public long getEvictionCount()
+	{
+		return cache.getEvictionCount();
+	}
+
+	public long getHitCount()
+	{
+		return cache.getHitCount();
+	}
+
+	public long getMissCount()
+	{
+		return cache.getMissCount();
+	}
+
+	public int getSize()
+	{
+		return cache.size();
+	}
+
+	public void invalidateAll()
+	{
+		cache.invalidateAll();
+	}
+
+	List<String> get(final ConnectionKey connectionKey, final Supplier<List<String>> loader)
+	{
+		final var cachedUserIds = cache.get(connectionKey);
+
+		if (cachedUserIds != null)
+			return cachedUserIds;
+
+		// Only one thread queries a missing key; concurrent callers wait for its result.
+
+		return coalescer.execute(connectionKey, () ->
+		{
+			final var generation = cache.generation(connectionKey);
+			final var userIds = List.copyOf(loader.get());
+
+			// Unknown connections are remembered briefly, so repeated misses don't all reach the database.
+
+			if (userIds.isEmpty())
+				cache.put(connectionKey, userIds, generation, negativeTimeToLive);
+			else
+				cache.put(connectionKey, userIds, generation);
+
+			return userIds;
+		});
+	}
+
+	void invalidate(final ConnectionKey connectionKey)
+	{
+		cache.invalidate(connectionKey);
+
+		// Until the surrounding transaction completes, other threads may still read (and cache) the old rows.
+
+		TransactionCallbacks.afterCompletion(() -> cache.invalidate(connectionKey));
+	}
+
+	void invalidate(final String userId, final String providerId)
+	{
+		// The removed provider user IDs aren't known, so drop every entry that maps to this user.
+
+		final BiPredicate<ConnectionKey, List<String>> predicate =
+			(connectionKey, userIds) -> connectionKey.getProviderId().equals(providerId) && userIds.contains(userId);
+
+		cache.invalidateIf(predicate);
+
+		TransactionCallbacks.afterCompletion(() -> cache.invalidateIf(predicate));
+	}
+}
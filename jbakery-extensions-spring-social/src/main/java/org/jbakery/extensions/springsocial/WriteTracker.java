@@ -0,0 +1,22 @@
+package org.jbakery.extensions.springsocial;
+
+final class WriteTracker
+{
+	private volatile boolean written;
+	private volatile long writeTime;
+
+	boolean hasWrittenWithin(final long nanos)
+	{
+		return written && System.nanoTime() - writeTime < nanos;
+	}
+
+	void recordWrite()
+	{
+		writeTime = System.nanoTime();
+		written = true;
+
+		// A transactional write only becomes visible to replicas once it commits, so the window restarts then.
+
+		TransactionCallbacks.afterCompletion(() -> writeTime = System.nanoTime());
+	}
+}
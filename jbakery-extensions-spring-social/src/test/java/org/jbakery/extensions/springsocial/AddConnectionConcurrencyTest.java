@@ -0,0 +1,139 @@
+package org.jbakery.extensions.springsocial;
+
+import static org.jbakery.extensions.springsocial.TestConnectionFactoryLocator.ALPHA;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.social.connect.DuplicateConnectionException;
+
+// Many threads add different connections for the same user and provider at once, so their inserts keep
+// computing the same next rank.
+
+final class AddConnectionConcurrencyTest
+{
+	private static final int CONNECTIONS_PER_THREAD = 25;
+	private static final int THREAD_COUNT = 16;
+	private static final String USER_ID = "user-1";
+
+	private TestDatabase database;
+	private JdbcUsersConnectionRepository usersRepository;
+
+	@BeforeEach
+	void setUp()
+	{
+		database = new TestDatabase();
+		usersRepository = database.createUsersConnectionRepository();
+	}
+
+	@AfterEach
+	void tearDown()
+	{
+		database.close();
+	}
+
+	@Test
+	void concurrentAddsOfDifferentConnectionsAllSucceedWithDistinctRanks()
+		throws InterruptedException, ExecutionException
+	{
+		final var executor = Executors.newFixedThreadPool(THREAD_COUNT);
+		final var start = new CountDownLatch(1);
+		final var futures = new ArrayList<Future<?>>();
+
+		try
+		{
+			for (var thread = 0; thread < THREAD_COUNT; thread++)
+			{
+				final var threadIndex = thread;
+
+				futures.add(executor.submit(() ->
+				{
+					start.await();
+
+					for (var index = 0; index < CONNECTIONS_PER_THREAD; index++)
+					{
+						final var providerUserId = "a-" + threadIndex + "-" + index;
+
+						usersRepository.createConnectionRepository(USER_ID).addConnection(database.createConnection(ALPHA, providerUserId));
+					}
+
+					return null;
+				}));
+			}
+
+			start.countDown();
+
+			for (final var future : futures)
+				future.get();
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+
+		final var ranks = database.getJdbcTemplate().queryForList("SELECT rank FROM UserConnection WHERE userId = ? AND providerId = ?", Integer.class, USER_ID, ALPHA);
+		final var expectedCount = THREAD_COUNT * CONNECTIONS_PER_THREAD;
+
+		assertEquals(expectedCount, ranks.size());
+		assertEquals(expectedCount, new HashSet<>(ranks).size());
+		assertEquals(expectedCount, usersRepository.createConnectionRepository(USER_ID).findConnections(ALPHA).size());
+	}
+
+	@Test
+	void concurrentAddsOfTheSameConnectionLeaveOneAndReportDuplicates()
+		throws InterruptedException, ExecutionException
+	{
+		final var executor = Executors.newFixedThreadPool(THREAD_COUNT);
+		final var start = new CountDownLatch(1);
+		final var futures = new ArrayList<Future<Boolean>>();
+
+		try
+		{
+			for (var thread = 0; thread < THREAD_COUNT; thread++)
+			{
+				futures.add(executor.submit(() ->
+				{
+					start.await();
+
+					try
+					{
+						usersRepository.createConnectionRepository(USER_ID).addConnection(database.createConnection(ALPHA, "a-1"));
+
+						return true;
+					}
+					catch (final DuplicateConnectionException e)
+					{
+						return false;
+					}
+				}));
+			}
+
+			start.countDown();
+
+			var addedCount = 0;
+
+			for (final var future : futures)
+			{
+				if (future.get())
+					addedCount++;
+			}
+
+			assertEquals(1, addedCount);
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+
+		assertEquals(1, usersRepository.createConnectionRepository(USER_ID).findConnections(ALPHA).size());
+		assertThrows(DuplicateConnectionException.class, () -> usersRepository.createConnectionRepository(USER_ID).addConnection(database.createConnection(ALPHA, "a-1")));
+	}
+}
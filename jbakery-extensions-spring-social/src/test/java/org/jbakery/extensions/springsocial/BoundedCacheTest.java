@@ -0,0 +1,110 @@
+package org.jbakery.extensions.springsocial;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+
+final class BoundedCacheTest
+{
+	private static final Duration TIME_TO_LIVE = Duration.ofMinutes(5);
+
+	@Test
+	void evictsTheLeastRecentlyUsedEntryOnceFull()
+	{
+		final var cache = new BoundedCache<String, String>(2, TIME_TO_LIVE);
+
+		put(cache, "a", "1");
+		put(cache, "b", "2");
+
+		// Reading "a" makes "b" the least recently used.
+
+		assertEquals("1", cache.get("a"));
+
+		put(cache, "c", "3");
+
+		assertNull(cache.get("b"));
+		assertEquals("1", cache.get("a"));
+		assertEquals("3", cache.get("c"));
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getEvictionCount());
+	}
+
+	@Test
+	void expiredEntriesAreMissesAndRemoved()
+		throws InterruptedException
+	{
+		final var cache = new BoundedCache<String, String>(10, TIME_TO_LIVE);
+
+		cache.put("a", "1", cache.generation("a"), Duration.ofMillis(1));
+		put(cache, "b", "2");
+
+		Thread.sleep(10);
+
+		assertNull(cache.get("a"));
+		assertEquals("2", cache.get("b"));
+		assertEquals(1, cache.size());
+		assertEquals(1, cache.getEvictionCount());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(1, cache.getHitCount());
+	}
+
+	@Test
+	void invalidationRejectsALoadThatStartedBeforeIt()
+	{
+		final var cache = new BoundedCache<String, String>(10, TIME_TO_LIVE);
+		final var generation = cache.generation("a");
+
+		cache.invalidate("a");
+		cache.put("a", "stale", generation);
+
+		assertNull(cache.get("a"));
+
+		put(cache, "a", "fresh");
+
+		assertEquals("fresh", cache.get("a"));
+	}
+
+	@Test
+	void invalidateIfRejectsInFlightLoadsOfUncachedKeys()
+	{
+		final var cache = new BoundedCache<String, String>(10, TIME_TO_LIVE);
+		final var generation = cache.generation("a");
+
+		put(cache, "b", "2");
+		cache.invalidateIf((key, value) -> key.equals("b"));
+		cache.put("a", "stale", generation);
+
+		assertNull(cache.get("a"));
+		assertNull(cache.get("b"));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	void invalidatingOneKeyKeepsTheOthers()
+	{
+		final var cache = new BoundedCache<String, String>(10, TIME_TO_LIVE);
+
+		put(cache, "a", "1");
+		put(cache, "b", "2");
+
+		cache.invalidate("a");
+
+		assertNull(cache.get("a"));
+		assertEquals("2", cache.get("b"));
+	}
+
+	@Test
+	void rejectsInvalidBounds()
+	{
+		assertThrows(IllegalArgumentException.class, () -> new BoundedCache<String, String>(0, TIME_TO_LIVE));
+		assertThrows(IllegalArgumentException.class, () -> new BoundedCache<String, String>(1, Duration.ZERO));
+	}
+
+	private static void put(final BoundedCache<String, String> cache, final String key, final String value)
+	{
+		cache.put(key, value, cache.generation(key));
+	}
+}
@@ -0,0 +1,73 @@
+package org.jbakery.extensions.springsocial;
+
+import static org.jbakery.extensions.springsocial.TestConnectionFactoryLocator.ALPHA;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+final class CachingUsersConnectionRepositoryTest
+{
+	private static final String USER_ID = "user-1";
+
+	private ConnectionCache cache;
+	private TestDatabase database;
+	private CachingUsersConnectionRepository repository;
+
+	@BeforeEach
+	void setUp()
+	{
+		database = new TestDatabase();
+		cache = new ConnectionCache(100, Duration.ofMinutes(5));
+		repository = new CachingUsersConnectionRepository(database.createUsersConnectionRepository(), database.getConnectionFactoryLocator(), cache);
+	}
+
+	@AfterEach
+	void tearDown()
+	{
+		database.close();
+	}
+
+	@Test
+	void signInKeepsTheUsersCachedConnections()
+	{
+		final var connection = database.createConnection(ALPHA, "a-1");
+
+		repository.createConnectionRepository(USER_ID).addConnection(connection);
+
+		assertEquals(1, repository.createConnectionRepository(USER_ID).findConnections(ALPHA).size());
+		assertEquals(List.of(USER_ID), repository.findUserIdsWithConnection(connection));
+		assertEquals(1, repository.createConnectionRepository(USER_ID).findConnections(ALPHA).size());
+
+		assertEquals(1, cache.getMissCount());
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getSize());
+	}
+
+	@Test
+	void implicitSignUpInvalidatesTheNewUsersEntry()
+	{
+		repository.setConnectionSignUp(connection -> "signed-up");
+
+		// An earlier read cached the new user's (empty) connections.
+
+		assertTrue(repository.createConnectionRepository("signed-up").findConnections(ALPHA).isEmpty());
+
+		assertEquals(List.of("signed-up"), repository.findUserIdsWithConnection(database.createConnection(ALPHA, "a-1")));
+		assertEquals(1, repository.createConnectionRepository("signed-up").findConnections(ALPHA).size());
+	}
+
+	@Test
+	void declinedSignUpLeavesTheCacheAlone()
+	{
+		repository.setConnectionSignUp(connection -> null);
+		repository.createConnectionRepository(USER_ID).findConnections(ALPHA);
+
+		assertTrue(repository.findUserIdsWithConnection(database.createConnection(ALPHA, "a-1")).isEmpty());
+		assertEquals(1, cache.getSize());
+	}
+}
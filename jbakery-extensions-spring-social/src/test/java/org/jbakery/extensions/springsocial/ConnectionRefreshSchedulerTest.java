@@ -0,0 +1,66 @@
+package org.jbakery.extensions.springsocial;
+
+import static org.jbakery.extensions.springsocial.TestConnectionFactoryLocator.ALPHA;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+// The test provider can't refresh (it has no OAuth operations), so every refresh attempt fails.
+
+final class ConnectionRefreshSchedulerTest
+{
+	private static final String USER_ID = "user-1";
+
+	private TestDatabase database;
+	private ConnectionRefreshScheduler refreshScheduler;
+	private ScheduledExecutorService scheduler;
+
+	@BeforeEach
+	void setUp()
+	{
+		database = new TestDatabase();
+		scheduler = Executors.newSingleThreadScheduledExecutor();
+
+		final var usersRepository = database.createUsersConnectionRepository();
+
+		usersRepository
+			.createConnectionRepository(USER_ID)
+			.addConnection(database.createConnection(ALPHA, "a-1", System.currentTimeMillis() + 60_000L));
+
+		refreshScheduler = new ConnectionRefreshScheduler(usersRepository, scheduler, Runnable::run);
+	}
+
+	@AfterEach
+	void tearDown()
+	{
+		scheduler.shutdownNow();
+		database.close();
+	}
+
+	@Test
+	void failedRefreshIsNotRetriedOnTheNextPass()
+	{
+		assertEquals(0, refreshScheduler.refreshExpiringConnections());
+		assertEquals(1, refreshScheduler.getFailureCount());
+
+		assertEquals(0, refreshScheduler.refreshExpiringConnections());
+		assertEquals(1, refreshScheduler.getFailureCount());
+	}
+
+	@Test
+	void failedRefreshIsRetriedOnceItsDelayHasPassed()
+	{
+		refreshScheduler.setMaximumRetryDelay(Duration.ZERO);
+
+		refreshScheduler.refreshExpiringConnections();
+		refreshScheduler.refreshExpiringConnections();
+
+		assertEquals(2, refreshScheduler.getFailureCount());
+		assertEquals(0, refreshScheduler.getLostCount());
+	}
+}
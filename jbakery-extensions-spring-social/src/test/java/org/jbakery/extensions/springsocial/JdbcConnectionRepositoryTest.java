@@ -0,0 +1,473 @@
+package org.jbakery.extensions.springsocial;
+
+import static org.jbakery.extensions.springsocial.TestConnectionFactoryLocator.ALPHA;
+import static org.jbakery.extensions.springsocial.TestConnectionFactoryLocator.BETA;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.social.connect.Connection;
+import org.springframework.social.connect.ConnectionData;
+import org.springframework.social.connect.ConnectionKey;
+import org.springframework.social.connect.DuplicateConnectionException;
+import org.springframework.social.connect.NoSuchConnectionException;
+import org.springframework.social.connect.NotConnectedException;
+import org.springframework.util.LinkedMultiValueMap;
+
+final class JdbcConnectionRepositoryTest
+{
+	private static final String USER_ID = "user-1";
+
+	private TestDatabase database;
+	private JdbcConnectionRepository repository;
+	private JdbcUsersConnectionRepository usersRepository;
+
+	@BeforeEach
+	void setUp()
+	{
+		database = new TestDatabase();
+		usersRepository = database.createUsersConnectionRepository();
+		repository = usersRepository.createConnectionRepository(USER_ID);
+	}
+
+	@AfterEach
+	void tearDown()
+	{
+		database.close();
+	}
+
+	@Test
+	void findAllConnectionsGroupsByProviderInRankOrder()
+	{
+		add(ALPHA, "a-2");
+		add(BETA, "b-1");
+		add(ALPHA, "a-1");
+
+		final var connections = repository.findAllConnections();
+
+		assertEquals(Arrays.asList(ALPHA, BETA), new ArrayList<>(connections.keySet()));
+		assertEquals(Arrays.asList("a-2", "a-1"), providerUserIds(connections.get(ALPHA)));
+		assertEquals(Arrays.asList("b-1"), providerUserIds(connections.get(BETA)));
+	}
+
+	@Test
+	void findAllConnectionsListsRegisteredProvidersWithoutConnections()
+	{
+		add(BETA, "b-1");
+
+		final var connections = repository.findAllConnections();
+
+		assertEquals(Arrays.asList(ALPHA, BETA), new ArrayList<>(connections.keySet()));
+		assertTrue(connections.get(ALPHA).isEmpty());
+		assertEquals(Arrays.asList("b-1"), providerUserIds(connections.get(BETA)));
+	}
+
+	@Test
+	void findAllConnectionsIgnoresOtherUsers()
+	{
+		usersRepository.createConnectionRepository("user-2").addConnection(database.createConnection(ALPHA, "a-other"));
+
+		final var connections = repository.findAllConnections();
+
+		assertTrue(connections.get(ALPHA).isEmpty());
+		assertTrue(connections.get(BETA).isEmpty());
+	}
+
+	@Test
+	void findConnectionsReturnsProviderConnectionsInRankOrder()
+	{
+		add(ALPHA, "a-1");
+		add(BETA, "b-1");
+		add(ALPHA, "a-2");
+
+		assertEquals(Arrays.asList("a-1", "a-2"), providerUserIds(repository.findConnections(ALPHA)));
+		assertTrue(repository.findConnections("unconnected").isEmpty());
+	}
+
+	@Test
+	void findConnectionsByApiTypeReturnsProviderConnections()
+	{
+		add(ALPHA, "a-1");
+		add(BETA, "b-1");
+
+		final var connections = repository.findConnections(TestApi.Alpha.class);
+
+		assertEquals(1, connections.size());
+		assertEquals("access-token-a-1", connections.get(0).getApi().getAccessToken());
+	}
+
+	@Test
+	void findConnectionsToUsersPlacesConnectionsInRequestedOrder()
+	{
+		add(ALPHA, "a-1");
+		add(ALPHA, "a-2");
+		add(BETA, "b-1");
+
+		final var providerUsers = new LinkedMultiValueMap<String, String>();
+
+		providerUsers.add(ALPHA, "a-2");
+		providerUsers.add(ALPHA, "missing");
+		providerUsers.add(ALPHA, "a-1");
+		providerUsers.add(BETA, "b-1");
+
+		final var connections = repository.findConnectionsToUsers(providerUsers);
+
+		assertEquals(Arrays.asList("a-2", null, "a-1"), providerUserIds(connections.get(ALPHA)));
+		assertEquals(Arrays.asList("b-1"), providerUserIds(connections.get(BETA)));
+	}
+
+	@Test
+	void findConnectionsToUsersRejectsEmptyRequest()
+	{
+		assertThrows(IllegalArgumentException.class, () -> repository.findConnectionsToUsers(new LinkedMultiValueMap<>()));
+	}
+
+	@Test
+	void getConnectionRoundTripsConnectionData()
+	{
+		final var expected = database.createConnection(ALPHA, "a-1").createData();
+
+		add(ALPHA, "a-1");
+
+		final var actual = repository.getConnection(new ConnectionKey(ALPHA, "a-1")).createData();
+
+		assertEquals(expected.getProviderId(), actual.getProviderId());
+		assertEquals(expected.getProviderUserId(), actual.getProviderUserId());
+		assertEquals(expected.getDisplayName(), actual.getDisplayName());
+		assertEquals(expected.getProfileUrl(), actual.getProfileUrl());
+		assertEquals(expected.getImageUrl(), actual.getImageUrl());
+		assertEquals(expected.getAccessToken(), actual.getAccessToken());
+		assertEquals(expected.getSecret(), actual.getSecret());
+		assertEquals(expected.getRefreshToken(), actual.getRefreshToken());
+		assertEquals(expected.getExpireTime(), actual.getExpireTime());
+	}
+
+	@Test
+	void getConnectionReadsMissingExpireTimeAsNull()
+	{
+		repository.addConnection(database.createConnection(ALPHA, "a-1", null));
+
+		assertNull(repository.getConnection(new ConnectionKey(ALPHA, "a-1")).createData().getExpireTime());
+	}
+
+	@Test
+	void tokensAreStoredEncrypted()
+	{
+		add(ALPHA, "a-1");
+
+		final var storedAccessToken = database.getJdbcTemplate().queryForObject("SELECT accessToken FROM UserConnection", String.class);
+
+		assertNotEquals("access-token-a-1", storedAccessToken);
+		assertEquals("access-token-a-1", database.getTextEncryptor().decrypt(storedAccessToken));
+	}
+
+	@Test
+	void getConnectionThrowsForMissingConnection()
+	{
+		add(ALPHA, "a-1");
+
+		assertThrows(NoSuchConnectionException.class, () -> repository.getConnection(new ConnectionKey(ALPHA, "missing")));
+		assertThrows(NoSuchConnectionException.class, () -> usersRepository.createConnectionRepository("user-2").getConnection(new ConnectionKey(ALPHA, "a-1")));
+	}
+
+	@Test
+	void getConnectionByApiTypeReturnsConnection()
+	{
+		add(BETA, "b-1");
+
+		final Connection<TestApi.Beta> connection = repository.getConnection(TestApi.Beta.class, "b-1");
+
+		assertEquals("access-token-b-1", connection.getApi().getAccessToken());
+	}
+
+	@Test
+	void getPrimaryConnectionReturnsFirstRankedConnection()
+	{
+		add(ALPHA, "a-1");
+		add(ALPHA, "a-2");
+
+		assertEquals("a-1", repository.getPrimaryConnection(TestApi.Alpha.class).getKey().getProviderUserId());
+	}
+
+	@Test
+	void getPrimaryConnectionThrowsWhenNotConnected()
+	{
+		add(BETA, "b-1");
+
+		assertThrows(NotConnectedException.class, () -> repository.getPrimaryConnection(TestApi.Alpha.class));
+	}
+
+	@Test
+	void findPrimaryConnectionReturnsNullWhenNotConnected()
+	{
+		assertNull(repository.findPrimaryConnection(TestApi.Alpha.class));
+
+		add(ALPHA, "a-1");
+		add(ALPHA, "a-2");
+
+		assertEquals("a-1", repository.findPrimaryConnection(TestApi.Alpha.class).getKey().getProviderUserId());
+	}
+
+	@Test
+	void addConnectionRejectsDuplicateConnection()
+	{
+		add(ALPHA, "a-1");
+
+		assertThrows(DuplicateConnectionException.class, () -> add(ALPHA, "a-1"));
+		assertEquals(1, repository.findConnections(ALPHA).size());
+	}
+
+	@Test
+	void addConnectionAllowsSameProviderUserForDifferentUsers()
+	{
+		add(ALPHA, "a-1");
+		usersRepository.createConnectionRepository("user-2").addConnection(database.createConnection(ALPHA, "a-1"));
+
+		assertEquals(Arrays.asList(USER_ID, "user-2"), sorted(usersRepository.findUserIdsWithConnection(database.createConnection(ALPHA, "a-1"))));
+	}
+
+	@Test
+	void updateConnectionStoresNewData()
+	{
+		add(ALPHA, "a-1");
+
+		final var data = database.createConnection(ALPHA, "a-1").createData();
+
+		final var updated =
+			database.getConnectionFactoryLocator().getConnectionFactory(ALPHA).createConnection(
+				new ConnectionData(
+					ALPHA,
+					"a-1",
+					"New Name",
+					data.getProfileUrl(),
+					data.getImageUrl(),
+					"new-access-token",
+					null,
+					"new-refresh-token",
+					42L));
+
+		repository.updateConnection(updated);
+
+		final var actual = repository.getConnection(new ConnectionKey(ALPHA, "a-1")).createData();
+
+		assertEquals("New Name", actual.getDisplayName());
+		assertEquals("new-access-token", actual.getAccessToken());
+		assertNull(actual.getSecret());
+		assertEquals("new-refresh-token", actual.getRefreshToken());
+		assertEquals(Long.valueOf(42L), actual.getExpireTime());
+	}
+
+	@Test
+	void removeConnectionsRemovesOnlyThatProvider()
+	{
+		add(ALPHA, "a-1");
+		add(ALPHA, "a-2");
+		add(BETA, "b-1");
+
+		repository.removeConnections(ALPHA);
+
+		assertTrue(repository.findConnections(ALPHA).isEmpty());
+		assertEquals(1, repository.findConnections(BETA).size());
+	}
+
+	@Test
+	void removeConnectionRemovesOnlyThatConnection()
+	{
+		add(ALPHA, "a-1");
+		add(ALPHA, "a-2");
+
+		repository.removeConnection(new ConnectionKey(ALPHA, "a-1"));
+
+		assertEquals(Arrays.asList("a-2"), providerUserIds(repository.findConnections(ALPHA)));
+		assertEquals("a-2", repository.getPrimaryConnection(TestApi.Alpha.class).getKey().getProviderUserId());
+	}
+
+	@Test
+	void addConnectionAfterRemovalRanksLast()
+	{
+		add(ALPHA, "a-1");
+		add(ALPHA, "a-2");
+		repository.removeConnection(new ConnectionKey(ALPHA, "a-1"));
+		add(ALPHA, "a-1");
+
+		assertEquals(Arrays.asList("a-2", "a-1"), providerUserIds(repository.findConnections(ALPHA)));
+	}
+
+	@Test
+	void findConnectionPageResumesAfterCursor()
+	{
+		add(ALPHA, "a-1");
+		add(ALPHA, "a-2");
+		add(BETA, "b-1");
+
+		final var first = repository.findConnectionPage(null, null, 2);
+
+		assertEquals(Arrays.asList("a-1", "a-2"), providerUserIds(first.getItems()));
+		assertTrue(first.hasNextPage());
+
+		final var second = repository.findConnectionPage(null, first.getNextCursor(), 2);
+
+		assertEquals(Arrays.asList("b-1"), providerUserIds(second.getItems()));
+		assertFalse(second.hasNextPage());
+	}
+
+	@Test
+	void findConnectionPagePagesWithTheGenericDialect()
+	{
+		add(ALPHA, "a-1");
+		add(ALPHA, "a-2");
+		add(ALPHA, "a-3");
+
+		// The public constructor can't know the database, so the statement caps the rows instead of the query.
+
+		final var genericRepository =
+			new JdbcConnectionRepository(
+				database.getConnectionFactoryLocator(),
+				database.getJdbcTemplate(),
+				database.getSchemaConfiguration(),
+				database.getTextEncryptor(),
+				USER_ID);
+
+		final var first = genericRepository.findConnectionPage(ALPHA, null, 2);
+
+		assertEquals(Arrays.asList("a-1", "a-2"), providerUserIds(first.getItems()));
+		assertTrue(first.hasNextPage());
+
+		final var second = genericRepository.findConnectionSummaryPage(ALPHA, first.getNextCursor(), 2);
+
+		assertEquals(1, second.getItems().size());
+		assertEquals("a-3", second.getItems().get(0).getProviderUserId());
+		assertFalse(second.hasNextPage());
+	}
+
+	@Test
+	void findConnectionSummaryPageFiltersByProvider()
+	{
+		add(ALPHA, "a-1");
+		add(BETA, "b-1");
+		add(BETA, "b-2");
+
+		final var page = repository.findConnectionSummaryPage(BETA, null, 10);
+
+		assertEquals(2, page.getItems().size());
+		assertEquals("b-1", page.getItems().get(0).getProviderUserId());
+		assertEquals("Display Name b-2", page.getItems().get(1).getDisplayName());
+		assertFalse(page.hasNextPage());
+	}
+
+	@Test
+	void findConnectionsRecordsRowMappingForEveryRow()
+	{
+		final var rowMappings = new AtomicInteger();
+		final var metricsRepository = database.createUsersConnectionRepository();
+
+		metricsRepository.setMetrics(
+			new RepositoryMetrics()
+			{
+				@Override
+				public void recordRowMapping(final long durationNanos)
+				{
+					rowMappings.incrementAndGet();
+				}
+			});
+
+		add(ALPHA, "a-1");
+		add(ALPHA, "a-2");
+		add(BETA, "b-1");
+
+		assertEquals(2, metricsRepository.createConnectionRepository(USER_ID).findConnections(ALPHA).size());
+		assertEquals(2, rowMappings.get());
+	}
+
+	@Test
+	void lazyConnectionsAnswerExpiryWithoutDecrypting()
+	{
+		final var decryptions = new AtomicInteger();
+		final var lazyRepository = database.createUsersConnectionRepository();
+
+		lazyRepository.setLazyTokenDecryption(true);
+		lazyRepository.setMetrics(
+			new RepositoryMetrics()
+			{
+				@Override
+				public void recordDecryption(final long durationNanos)
+				{
+					decryptions.incrementAndGet();
+				}
+			});
+
+		repository.addConnection(database.createConnection(ALPHA, "a-expired", System.currentTimeMillis() - 60_000L));
+		repository.addConnection(database.createConnection(ALPHA, "a-current", System.currentTimeMillis() + 3_600_000L));
+
+		final var connections = lazyRepository.createConnectionRepository(USER_ID).findConnections(ALPHA);
+
+		assertTrue(connections.get(0).hasExpired());
+		assertFalse(connections.get(1).hasExpired());
+		assertEquals(0, decryptions.get());
+	}
+
+	@Test
+	void lazyConnectionsAreEqualByKeyWithoutDecrypting()
+	{
+		final var decryptions = new AtomicInteger();
+		final var lazyRepository = database.createUsersConnectionRepository();
+
+		lazyRepository.setLazyTokenDecryption(true);
+		lazyRepository.setMetrics(
+			new RepositoryMetrics()
+			{
+				@Override
+				public void recordDecryption(final long durationNanos)
+				{
+					decryptions.incrementAndGet();
+				}
+			});
+
+		add(ALPHA, "a-1");
+		add(ALPHA, "a-2");
+
+		final var first = lazyRepository.createConnectionRepository(USER_ID).findConnections(ALPHA);
+		final var second = lazyRepository.createConnectionRepository(USER_ID).findConnections(ALPHA);
+
+		assertEquals(first, second);
+		assertEquals(first.get(0).hashCode(), second.get(0).hashCode());
+		assertNotEquals(first.get(0), first.get(1));
+		assertEquals(2, new HashSet<>(first).size());
+		assertEquals(0, decryptions.get());
+	}
+
+	private void add(final String providerId, final String providerUserId)
+	{
+		repository.addConnection(database.createConnection(providerId, providerUserId));
+	}
+
+	private static List<String> providerUserIds(final List<? extends Connection<?>> connections)
+	{
+		final var providerUserIds = new ArrayList<String>(connections.size());
+
+		for (final var connection : connections)
+			providerUserIds.add(connection == null ? null : connection.getKey().getProviderUserId());
+
+		return providerUserIds;
+	}
+
+	private static List<String> sorted(final List<String> values)
+	{
+		final var sortedValues = new ArrayList<>(values);
+
+		sortedValues.sort(null);
+
+		return sortedValues;
+	}
+}
@@ -0,0 +1,157 @@
+package org.jbakery.extensions.springsocial;
+
+import static org.jbakery.extensions.springsocial.TestConnectionFactoryLocator.ALPHA;
+import static org.jbakery.extensions.springsocial.TestConnectionFactoryLocator.BETA;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.social.connect.Connection;
+import org.springframework.social.connect.ConnectionKey;
+import org.springframework.social.connect.DuplicateConnectionException;
+import org.springframework.social.connect.NoSuchConnectionException;
+
+// The R2DBC driver and the JDBC pool open the same in-memory database, so each repository can check the
+// other's writes.
+
+final class R2dbcConnectionRepositoryTest
+{
+	private static final String USER_ID = "user-1";
+
+	private TestDatabase database;
+	private JdbcConnectionRepository jdbcRepository;
+	private R2dbcConnectionRepository repository;
+
+	@BeforeEach
+	void setUp()
+	{
+		database = new TestDatabase();
+		repository = database.createR2dbcConnectionRepository(USER_ID);
+		jdbcRepository = database.createUsersConnectionRepository().createConnectionRepository(USER_ID);
+	}
+
+	@AfterEach
+	void tearDown()
+	{
+		database.close();
+	}
+
+	@Test
+	void bindMarkersAreRewrittenForTheDriver()
+	{
+		assertEquals("a = $1 AND b = $2", DatabaseDialect.H2.bindMarkers("a = ? AND b = ?"));
+		assertEquals("a = $1 AND b = $2", DatabaseDialect.POSTGRESQL.bindMarkers("a = ? AND b = ?"));
+		assertEquals("a = @P0 AND b = @P1", DatabaseDialect.SQL_SERVER.bindMarkers("a = ? AND b = ?"));
+		assertEquals("a = ? AND b = ?", DatabaseDialect.GENERIC.bindMarkers("a = ? AND b = ?"));
+	}
+
+	@Test
+	void addConnectionIsReadableThroughJdbc()
+	{
+		repository.addConnection(database.createConnection(ALPHA, "a-1")).block();
+		repository.addConnection(database.createConnection(ALPHA, "a-2")).block();
+
+		assertEquals(Arrays.asList("a-1", "a-2"), providerUserIds(jdbcRepository.findConnections(ALPHA)));
+		assertEquals("access-token-a-2", jdbcRepository.getConnection(new ConnectionKey(ALPHA, "a-2")).createData().getAccessToken());
+	}
+
+	@Test
+	void findConnectionsReadsJdbcWritesInRankOrder()
+	{
+		jdbcRepository.addConnection(database.createConnection(ALPHA, "a-2"));
+		jdbcRepository.addConnection(database.createConnection(BETA, "b-1"));
+		jdbcRepository.addConnection(database.createConnection(ALPHA, "a-1"));
+
+		assertEquals(Arrays.asList("a-2", "a-1"), providerUserIds(repository.findConnections(ALPHA).collectList().block()));
+		assertEquals("a-2", repository.findPrimaryConnection(ALPHA).block().getKey().getProviderUserId());
+		assertNull(repository.findPrimaryConnection("unconnected").block());
+	}
+
+	@Test
+	void getConnectionRoundTripsConnectionData()
+	{
+		final var expected = database.createConnection(BETA, "b-1").createData();
+
+		repository.addConnection(database.createConnection(BETA, "b-1")).block();
+
+		final var actual = repository.getConnection(new ConnectionKey(BETA, "b-1")).block().createData();
+
+		assertEquals(expected.getDisplayName(), actual.getDisplayName());
+		assertEquals(expected.getAccessToken(), actual.getAccessToken());
+		assertEquals(expected.getSecret(), actual.getSecret());
+		assertEquals(expected.getRefreshToken(), actual.getRefreshToken());
+		assertEquals(expected.getExpireTime(), actual.getExpireTime());
+	}
+
+	@Test
+	void missingExpireTimeIsReadAsNull()
+	{
+		repository.addConnection(database.createConnection(ALPHA, "a-1", null)).block();
+
+		assertNull(repository.getConnection(new ConnectionKey(ALPHA, "a-1")).block().createData().getExpireTime());
+		assertNull(jdbcRepository.getConnection(new ConnectionKey(ALPHA, "a-1")).createData().getExpireTime());
+	}
+
+	@Test
+	void getConnectionFailsForMissingConnection()
+	{
+		assertThrows(NoSuchConnectionException.class, () -> repository.getConnection(new ConnectionKey(ALPHA, "missing")).block());
+	}
+
+	@Test
+	void addConnectionMapsDuplicateKeyToDuplicateConnection()
+	{
+		repository.addConnection(database.createConnection(ALPHA, "a-1")).block();
+
+		assertThrows(DuplicateConnectionException.class, () -> repository.addConnection(database.createConnection(ALPHA, "a-1")).block());
+	}
+
+	@Test
+	void updateConnectionStoresNewData()
+	{
+		repository.addConnection(database.createConnection(ALPHA, "a-1", 1L)).block();
+
+		final var replacement = database.createConnection(ALPHA, "a-1", null);
+
+		repository.updateConnection(replacement).block();
+
+		final var actual = jdbcRepository.getConnection(new ConnectionKey(ALPHA, "a-1")).createData();
+
+		assertNull(actual.getExpireTime());
+		assertEquals("access-token-a-1", actual.getAccessToken());
+	}
+
+	@Test
+	void removeConnectionsAndRemoveConnectionDeleteRows()
+	{
+		repository.addConnection(database.createConnection(ALPHA, "a-1")).block();
+		repository.addConnection(database.createConnection(ALPHA, "a-2")).block();
+		repository.addConnection(database.createConnection(BETA, "b-1")).block();
+
+		repository.removeConnection(new ConnectionKey(ALPHA, "a-1")).block();
+
+		assertEquals(Arrays.asList("a-2"), providerUserIds(jdbcRepository.findConnections(ALPHA)));
+
+		repository.removeConnections(ALPHA).block();
+
+		assertTrue(jdbcRepository.findConnections(ALPHA).isEmpty());
+		assertEquals(1, jdbcRepository.findConnections(BETA).size());
+	}
+
+	private static List<String> providerUserIds(final List<Connection<?>> connections)
+	{
+		final var providerUserIds = new ArrayList<String>(connections.size());
+
+		for (final var connection : connections)
+			providerUserIds.add(connection.getKey().getProviderUserId());
+
+		return providerUserIds;
+	}
+}
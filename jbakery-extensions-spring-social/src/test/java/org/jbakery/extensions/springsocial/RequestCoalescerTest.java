@@ -0,0 +1,132 @@
+package org.jbakery.extensions.springsocial;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+final class RequestCoalescerTest
+{
+	private static final String KEY = "key";
+
+	@Test
+	void waitersReceiveTheLeadersError()
+		throws Exception
+	{
+		final var coalescer = new RequestCoalescer();
+		final var error = new Error("leader");
+		final var executor = Executors.newSingleThreadExecutor();
+
+		try
+		{
+			final var waiter = new CompletableFuture<String>();
+
+			// The leader only fails once the second caller has joined its request.
+
+			final var thrown =
+				assertThrows(Error.class, () -> coalescer.execute(KEY, () ->
+				{
+					executor.execute(() ->
+					{
+						try
+						{
+							waiter.complete(coalescer.execute(KEY, () -> "waiter"));
+						}
+						catch (final Throwable e)
+						{
+							waiter.completeExceptionally(e);
+						}
+					});
+
+					awaitCoalescedCount(coalescer, 1);
+
+					throw error;
+				}));
+
+			assertSame(error, thrown);
+
+			final var waiterFailure = assertThrows(ExecutionException.class, () -> waiter.get(10, TimeUnit.SECONDS));
+
+			assertSame(error, waiterFailure.getCause());
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	void failedRequestIsNotKeptInFlight()
+	{
+		final var coalescer = new RequestCoalescer();
+
+		assertThrows(Error.class, () -> coalescer.execute(KEY, () ->
+		{
+			throw new Error("leader");
+		}));
+
+		assertEquals("next", coalescer.execute(KEY, () -> "next"));
+		assertEquals(2, coalescer.getExecutedCount());
+		assertEquals(0, coalescer.getCoalescedCount());
+	}
+
+	@Test
+	void concurrentCallersShareOneResult()
+		throws Exception
+	{
+		final var coalescer = new RequestCoalescer();
+		final var executor = Executors.newSingleThreadExecutor();
+
+		try
+		{
+			final var waiter = new CompletableFuture<String>();
+
+			final var value =
+				coalescer.execute(KEY, () ->
+				{
+					executor.execute(() -> waiter.complete(coalescer.execute(KEY, () -> "waiter")));
+
+					awaitCoalescedCount(coalescer, 1);
+
+					return "leader";
+				});
+
+			assertEquals("leader", value);
+			assertEquals("leader", waiter.get(10, TimeUnit.SECONDS));
+			assertEquals(1, coalescer.getExecutedCount());
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	private static void awaitCoalescedCount(final RequestCoalescer coalescer, final long count)
+	{
+		// The count is taken just before the waiter joins; the short sleep lets it reach the join.
+
+		final var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+
+		while (coalescer.getCoalescedCount() < count)
+		{
+			if (System.nanoTime() > deadline)
+				throw new IllegalStateException("count");
+
+			Thread.onSpinWait();
+		}
+
+		try
+		{
+			Thread.sleep(50);
+		}
+		catch (final InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,36 @@
+package org.jbakery.extensions.springsocial;
+
+// Each provider needs its own API type, so that connections can also be looked up by API type.
+
+abstract class TestApi
+{
+	private final String accessToken;
+
+	private TestApi(String accessToken)
+	{
+		this.accessToken = accessToken;
+	}
+
+	String getAccessToken()
+	{
+		return accessToken;
+	}
+
+	static final class Alpha
+		extends TestApi
+	{
+		Alpha(String accessToken)
+		{
+			super(accessToken);
+		}
+	}
+
+	static final class Beta
+		extends TestApi
+	{
+		Beta(String accessToken)
+		{
+			super(accessToken);
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package org.jbakery.extensions.springsocial;
+
+import java.util.function.Function;
+import org.springframework.social.connect.ApiAdapter;
+import org.springframework.social.connect.ConnectionValues;
+import org.springframework.social.connect.UserProfile;
+import org.springframework.social.connect.UserProfileBuilder;
+import org.springframework.social.connect.support.OAuth2ConnectionFactory;
+import org.springframework.social.oauth2.OAuth2Operations;
+import org.springframework.social.oauth2.OAuth2ServiceProvider;
+
+// Creates OAuth2 connections without ever contacting a provider.
+
+final class TestConnectionFactory<A extends TestApi>
+	extends OAuth2ConnectionFactory<A>
+{
+	TestConnectionFactory(String providerId, Function<String, A> apiFactory)
+	{
+		super(providerId, new ServiceProvider<>(apiFactory), new Adapter<>());
+	}
+
+	private static final class Adapter<A extends TestApi>
+		implements ApiAdapter<A>
+	{
+		@Override
+		public UserProfile fetchUserProfile(final A api)
+		{
+			return new UserProfileBuilder().build();
+		}
+
+		@Override
+		public void setConnectionValues(final A api, final ConnectionValues values)
+		{
+		}
+
+		@Override
+		public boolean test(final A api)
+		{
+			return true;
+		}
+
+		@Override
+		public void updateStatus(final A api, final String message)
+		{
+		}
+	}
+
+	private static final class ServiceProvider<A extends TestApi>
+		implements OAuth2ServiceProvider<A>
+	{
+		private final Function<String, A> apiFactory;
+
+		private ServiceProvider(final Function<String, A> apiFactory)
+		{
+			this.apiFactory = apiFactory;
+		}
+
+		@Override
+		public A getApi(final String accessToken)
+		{
+			return apiFactory.apply(accessToken);
+		}
+
+		@Override
+		public OAuth2Operations getOAuthOperations()
+		{
+			throw new UnsupportedOperationException();
+		}
+	}
+}
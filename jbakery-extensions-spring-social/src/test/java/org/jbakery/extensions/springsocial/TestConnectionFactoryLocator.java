@@ -0,0 +1,61 @@
+package org.jbakery.extensions.springsocial;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import org.springframework.social.connect.ConnectionFactory;
+import org.springframework.social.connect.ConnectionFactoryLocator;
+
+// ConnectionFactoryRegistry resolves API types from the factory's class, which a generic test factory
+// doesn't carry, so the test providers are registered with their API types explicitly.
+
+final class TestConnectionFactoryLocator
+	implements ConnectionFactoryLocator
+{
+	static final String ALPHA = "alpha";
+	static final String BETA = "beta";
+
+	private final Map<Class<?>, ConnectionFactory<?>> connectionFactoriesByApiType = new HashMap<>();
+	private final Map<String, ConnectionFactory<?>> connectionFactoriesByProviderId = new LinkedHashMap<>();
+
+	TestConnectionFactoryLocator()
+	{
+		register(TestApi.Alpha.class, new TestConnectionFactory<>(ALPHA, TestApi.Alpha::new));
+		register(TestApi.Beta.class, new TestConnectionFactory<>(BETA, TestApi.Beta::new));
+	}
+
+	@Override
+	public ConnectionFactory<?> getConnectionFactory(final String providerId)
+	{
+		final var connectionFactory = connectionFactoriesByProviderId.get(providerId);
+
+		if (connectionFactory == null)
+			throw new IllegalArgumentException("providerId");
+
+		return connectionFactory;
+	}
+
+	@Override
+	public <A> ConnectionFactory<A> getConnectionFactory(final Class<A> apiType)
+	{
+		final var connectionFactory = connectionFactoriesByApiType.get(apiType);
+
+		if (connectionFactory == null)
+			throw new IllegalArgumentException("apiType");
+
+		return (ConnectionFactory<A>)connectionFactory;
+	}
+
+	@Override
+	public Set<String> registeredProviderIds()
+	{
+		return connectionFactoriesByProviderId.keySet();
+	}
+
+	private void register(final Class<?> apiType, final ConnectionFactory<?> connectionFactory)
+	{
+		connectionFactoriesByApiType.put(apiType, connectionFactory);
+		connectionFactoriesByProviderId.put(connectionFactory.getProviderId(), connectionFactory);
+	}
+}
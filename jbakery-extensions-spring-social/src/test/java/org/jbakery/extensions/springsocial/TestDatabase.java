@@ -0,0 +1,120 @@
+package org.jbakery.extensions.springsocial;
+
+import io.r2dbc.h2.H2ConnectionConfiguration;
+import io.r2dbc.h2.H2ConnectionFactory;
+import java.util.UUID;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.crypto.encrypt.TextEncryptor;
+import org.springframework.social.connect.Connection;
+import org.springframework.social.connect.ConnectionData;
+
+// A private in-memory H2 database with the connection table created by SchemaManager.
+
+final class TestDatabase
+	implements AutoCloseable
+{
+	static final String ENCRYPTION_PASSWORD = "test-password";
+	static final String ENCRYPTION_SALT = "5c0744940b5c369b";
+
+	private final TestConnectionFactoryLocator connectionFactoryLocator = new TestConnectionFactoryLocator();
+	private final JdbcConnectionPool dataSource;
+	private final JdbcTemplate jdbcTemplate;
+	private final String name = UUID.randomUUID().toString();
+	private final SchemaConfiguration schemaConfiguration = new DefaultSchemaConfiguration();
+	private final TextEncryptor textEncryptor = PooledAesTextEncryptor.text(ENCRYPTION_PASSWORD, ENCRYPTION_SALT);
+
+	TestDatabase()
+	{
+		dataSource = JdbcConnectionPool.create("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1", "sa", "");
+		dataSource.setMaxConnections(64);
+
+		jdbcTemplate = new JdbcTemplate(dataSource);
+
+		new SchemaManager(dataSource, schemaConfiguration).createSchema();
+	}
+
+	@Override
+	public void close()
+	{
+		jdbcTemplate.execute("SHUTDOWN");
+		dataSource.dispose();
+	}
+
+	Connection<?> createConnection(final String providerId, final String providerUserId)
+	{
+		return createConnection(providerId, providerUserId, System.currentTimeMillis() + 3_600_000L);
+	}
+
+	Connection<?> createConnection(final String providerId, final String providerUserId, final Long expireTime)
+	{
+		final var data =
+			new ConnectionData(
+				providerId,
+				providerUserId,
+				"Display Name " + providerUserId,
+				"https://" + providerId + ".example.com/" + providerUserId,
+				"https://" + providerId + ".example.com/" + providerUserId + "/image.png",
+				"access-token-" + providerUserId,
+				"secret-" + providerUserId,
+				"refresh-token-" + providerUserId,
+				expireTime);
+
+		return connectionFactoryLocator.getConnectionFactory(providerId).createConnection(data);
+	}
+
+	R2dbcConnectionRepository createR2dbcConnectionRepository(final String userId)
+	{
+		// The R2DBC driver opens the same in-memory database as the JDBC pool.
+
+		final var r2dbcConnectionFactory =
+			new H2ConnectionFactory(
+				H2ConnectionConfiguration.builder()
+					.url("mem:" + name + ";DB_CLOSE_DELAY=-1")
+					.username("sa")
+					.password("")
+					.build());
+
+		return new R2dbcConnectionRepository(connectionFactoryLocator, r2dbcConnectionFactory, schemaConfiguration, textEncryptor, userId);
+	}
+
+	JdbcUsersConnectionRepository createUsersConnectionRepository()
+	{
+		return createUsersConnectionRepository(textEncryptor);
+	}
+
+	JdbcUsersConnectionRepository createUsersConnectionRepository(final TextEncryptor textEncryptor)
+	{
+		return new JdbcUsersConnectionRepository(connectionFactoryLocator, dataSource, schemaConfiguration, textEncryptor);
+	}
+
+	TestConnectionFactoryLocator getConnectionFactoryLocator()
+	{
+		return connectionFactoryLocator;
+	}
+
+	JdbcConnectionPool getDataSource()
+	{
+		return dataSource;
+	}
+
+	JdbcTemplate getJdbcTemplate()
+	{
+		return jdbcTemplate;
+	}
+
+	String getName()
+	{
+		return name;
+	}
+
+	SchemaConfiguration getSchemaConfiguration()
+	{
+		return schemaConfiguration;
+	}
+
+	TextEncryptor getTextEncryptor()
+	{
+		return textEncryptor;
+	}
+}
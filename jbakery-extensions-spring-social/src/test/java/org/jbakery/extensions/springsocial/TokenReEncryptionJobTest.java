@@ -0,0 +1,169 @@
+package org.jbakery.extensions.springsocial;
+
+import static org.jbakery.extensions.springsocial.TestConnectionFactoryLocator.ALPHA;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.encrypt.Encryptors;
+import org.springframework.security.crypto.encrypt.TextEncryptor;
+import org.springframework.social.connect.ConnectionKey;
+
+final class TokenReEncryptionJobTest
+{
+	private static final TextEncryptor NEW_KEY = Encryptors.text("new-password", TestDatabase.ENCRYPTION_SALT);
+	private static final TextEncryptor OLD_KEY = Encryptors.text("old-password", TestDatabase.ENCRYPTION_SALT);
+
+	private TestDatabase database;
+
+	@BeforeEach
+	void setUp()
+	{
+		database = new TestDatabase();
+	}
+
+	@AfterEach
+	void tearDown()
+	{
+		database.close();
+	}
+
+	@Test
+	void rotatesOldKeyRowsAndSkipsRowsAlreadyOnTheNewKey()
+	{
+		addConnections(OLD_KEY, "old-", 100);
+		addConnections(NEW_KEY, "new-", 40);
+
+		final var job = createJob(OLD_KEY, NEW_KEY);
+
+		job.setPageSize(32);
+
+		assertEquals(100, job.run());
+		assertEquals(100, job.getReEncryptedCount());
+		assertEquals(40, job.getAlreadyRotatedCount());
+		assertEquals(0, job.getAmbiguousCount());
+		assertEquals(0, job.getConflictCount());
+
+		assertReadableWith(NEW_KEY, "old-", 100);
+		assertReadableWith(NEW_KEY, "new-", 40);
+	}
+
+	@Test
+	void runningAgainFindsNothingLeftToRotate()
+	{
+		addConnections(OLD_KEY, "old-", 80);
+
+		assertEquals(80, createJob(OLD_KEY, NEW_KEY).run());
+
+		final var job = createJob(OLD_KEY, NEW_KEY);
+
+		assertEquals(0, job.run());
+		assertEquals(80, job.getAlreadyRotatedCount());
+		assertReadableWith(NEW_KEY, "old-", 80);
+	}
+
+	@Test
+	void wrongKeyGarbageDoesNotMakeARowAmbiguous()
+	{
+		// The new key "decrypts" old ciphertexts, but only to unreadable bytes, as AES/CBC sometimes does.
+
+		final var oldKey = new PrefixTextEncryptor("old:", null);
+		final var newKey = new PrefixTextEncryptor("new:", "\uFFFD\u0003");
+
+		addConnections(oldKey, "old-", 3);
+
+		final var job = createJob(oldKey, newKey);
+
+		assertEquals(3, job.run());
+		assertEquals(0, job.getAmbiguousCount());
+		assertReadableWith(newKey, "old-", 3);
+	}
+
+	@Test
+	void rowsReadableUnderBothKeysAreReportedAndLeftUntouched()
+	{
+		final var oldKey = new PrefixTextEncryptor("old:", null);
+		final var newKey = new PrefixTextEncryptor("new:", "plausible");
+
+		addConnections(oldKey, "old-", 2);
+		addConnections(newKey, "new-", 1);
+
+		final var job = createJob(oldKey, newKey);
+
+		assertEquals(0, job.run());
+		assertEquals(0, job.getReEncryptedCount());
+		assertEquals(2, job.getAmbiguousCount());
+		assertEquals(
+			List.of(new UserConnectionKey("old-0", new ConnectionKey(ALPHA, "old-0")), new UserConnectionKey("old-1", new ConnectionKey(ALPHA, "old-1"))),
+			job.getAmbiguousKeys());
+
+		// The ambiguous rows are neither counted as rotated nor rewritten.
+
+		assertEquals(1, job.getAlreadyRotatedCount());
+		assertReadableWith(oldKey, "old-", 2);
+	}
+
+	private void addConnections(final TextEncryptor textEncryptor, final String prefix, final int count)
+	{
+		final var usersRepository = database.createUsersConnectionRepository(textEncryptor);
+
+		for (var index = 0; index < count; index++)
+			usersRepository.createConnectionRepository(prefix + index).addConnection(database.createConnection(ALPHA, prefix + index));
+	}
+
+	private void assertReadableWith(final TextEncryptor textEncryptor, final String prefix, final int count)
+	{
+		final var usersRepository = database.createUsersConnectionRepository(textEncryptor);
+
+		for (var index = 0; index < count; index++)
+		{
+			final var providerUserId = prefix + index;
+			final var data = usersRepository.createConnectionRepository(providerUserId).getConnection(new ConnectionKey(ALPHA, providerUserId)).createData();
+
+			assertEquals("access-token-" + providerUserId, data.getAccessToken());
+			assertEquals("secret-" + providerUserId, data.getSecret());
+			assertEquals("refresh-token-" + providerUserId, data.getRefreshToken());
+		}
+	}
+
+	private TokenReEncryptionJob createJob(final TextEncryptor oldKey, final TextEncryptor newKey)
+	{
+		return new TokenReEncryptionJob(database.getDataSource(), database.getSchemaConfiguration(), DatabaseDialect.H2, oldKey, newKey);
+	}
+
+	// Marks ciphertexts with a prefix. Foreign ciphertexts fail to decrypt unless a wrong-key plaintext is
+	// given, which stands in for the padding accidents of an unauthenticated cipher.
+
+	private static final class PrefixTextEncryptor
+		implements TextEncryptor
+	{
+		private final String prefix;
+		private final String wrongKeyPlaintext;
+
+		private PrefixTextEncryptor(final String prefix, final String wrongKeyPlaintext)
+		{
+			this.prefix = prefix;
+			this.wrongKeyPlaintext = wrongKeyPlaintext;
+		}
+
+		@Override
+		public String encrypt(final String text)
+		{
+			return prefix + text;
+		}
+
+		@Override
+		public String decrypt(final String encryptedText)
+		{
+			if (encryptedText.startsWith(prefix))
+				return encryptedText.substring(prefix.length());
+
+			if (wrongKeyPlaintext == null)
+				throw new IllegalStateException("encryptedText");
+
+			return wrongKeyPlaintext;
+		}
+	}
+}